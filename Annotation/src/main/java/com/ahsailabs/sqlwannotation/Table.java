@@ -14,4 +14,5 @@ public @interface Table {
     String name() default "";
     boolean recordLog() default true;
     boolean softDelete() default false;
+    boolean dirtyTracking() default false;
 }
@@ -0,0 +1,105 @@
+package com.ahsailabs.sqlitewrapper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+/**
+ * update of a table with dirty tracking, only changed columns are written and the snapshot follows committed rows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DirtyTrackingInstrumentedTest {
+    private SQLiteWrapper sqLiteWrapper;
+
+    @Before
+    public void setUp() {
+        sqLiteWrapper = TestItem.openTracked(InstrumentationRegistry.getInstrumentation().getTargetContext());
+    }
+
+    @Test
+    public void updateWritesOnlyDirtyColumns() {
+        TestItem item = new TestItem("a", "first", 1);
+        assertTrue(item.saveIn(TestItem.TRACKED_DATABASE_NAME));
+
+        //another object of the same row changes a column this one does not touch
+        TestItem other = find("a");
+        other.count = 99;
+        assertTrue(other.updateIn(TestItem.TRACKED_DATABASE_NAME));
+
+        item.name = "changed";
+        assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+
+        TestItem stored = find("a");
+        assertEquals("changed", stored.name);
+        assertEquals(Integer.valueOf(99), stored.count);
+    }
+
+    @Test
+    public void unchangedObjectIsNotWritten() {
+        TestItem item = new TestItem("a", "first", 1);
+        assertTrue(item.saveIn(TestItem.TRACKED_DATABASE_NAME));
+
+        TestItem other = find("a");
+        other.count = 99;
+        assertTrue(other.updateIn(TestItem.TRACKED_DATABASE_NAME));
+
+        //a full row update would write count 1 back
+        assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+        assertEquals(Integer.valueOf(99), find("a").count);
+    }
+
+    @Test
+    public void rolledBackUpdateIsWrittenAgain() {
+        final TestItem item = new TestItem("a", "first", 1);
+        assertTrue(item.saveIn(TestItem.TRACKED_DATABASE_NAME));
+
+        try {
+            sqLiteWrapper.inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    item.name = "changed";
+                    assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("exception must be thrown again");
+        } catch (IllegalStateException e){
+            //expected
+        }
+        assertEquals("first", find("a").name);
+
+        assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+        assertEquals("changed", find("a").name);
+    }
+
+    @Test
+    public void valueChangedBackInsideTransactionIsWritten() {
+        final TestItem item = new TestItem("a", "first", 1);
+        assertTrue(item.saveIn(TestItem.TRACKED_DATABASE_NAME));
+
+        sqLiteWrapper.inTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                item.name = "changed";
+                assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+                //compared with the row written above, not with the committed one
+                item.name = "first";
+                assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+                return null;
+            }
+        });
+
+        assertEquals("first", find("a").name);
+    }
+
+    private TestItem find(String key){
+        return sqLiteWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{key});
+    }
+}
@@ -0,0 +1,166 @@
+package com.ahsailabs.sqlitewrapper;
+
+import android.database.SQLException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * writes queued by enableGroupCommit, their futures must follow the commit of the batch.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GroupCommitInstrumentedTest {
+    private SQLiteWrapper sqLiteWrapper;
+
+    @Before
+    public void setUp() {
+        sqLiteWrapper = TestItem.open(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        //a long interval keeps every write of a test in the same batch
+        sqLiteWrapper.enableGroupCommit(500, 100);
+    }
+
+    @After
+    public void tearDown() {
+        sqLiteWrapper.disableGroupCommit();
+    }
+
+    @Test
+    public void futuresCompleteAfterCommit() throws Exception {
+        List<Future<Boolean>> futureList = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futureList.add(new TestItem("key" + i, "name", i).saveAsync());
+        }
+
+        for (Future<Boolean> future : futureList) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(5, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void failedWriteDoesNotFailOthers() throws Exception {
+        Future<Boolean> firstFuture = new TestItem("a", "first", 1).saveAsync();
+        Future<Boolean> failedFuture = sqLiteWrapper.submitWrite(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                new TestItem("x", "half written", 0).save();
+                throw new IllegalStateException("failed write");
+            }
+        });
+        Future<Boolean> lastFuture = new TestItem("b", "second", 2).saveAsync();
+
+        assertTrue(firstFuture.get(5, TimeUnit.SECONDS));
+        assertTrue(lastFuture.get(5, TimeUnit.SECONDS));
+        try {
+            failedFuture.get(5, TimeUnit.SECONDS);
+            fail("failed write must fail its future");
+        } catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(2, TestItem.count(sqLiteWrapper));
+        assertNull(sqLiteWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{"x"}));
+    }
+
+    @Test
+    public void swallowedNestedFailureFailsOnlyItsWrite() throws Exception {
+        Future<Boolean> firstFuture = new TestItem("a", "first", 1).saveAsync();
+        Future<Boolean> failedFuture = sqLiteWrapper.submitWrite(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    sqLiteWrapper.inTransaction(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            new TestItem("x", "half written", 0).save();
+                            throw new IllegalStateException("nested");
+                        }
+                    });
+                } catch (IllegalStateException e){
+                    //swallowed, the write still has to be reported as failed
+                }
+                return true;
+            }
+        });
+
+        assertTrue(firstFuture.get(5, TimeUnit.SECONDS));
+        try {
+            failedFuture.get(5, TimeUnit.SECONDS);
+            fail("rolled back write must fail its future");
+        } catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+
+        assertEquals(1, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void disableCommitsQueuedWrites() throws Exception {
+        Future<Boolean> future = new TestItem("a", "first", 1).saveAsync();
+        sqLiteWrapper.disableGroupCommit();
+
+        assertTrue(future.isDone());
+        assertTrue(future.get());
+        assertEquals(1, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void writeInsideTransactionRunsDirectly() {
+        Future<Boolean> future = sqLiteWrapper.inTransaction(new Callable<Future<Boolean>>() {
+            @Override
+            public Future<Boolean> call() {
+                return new TestItem("a", "first", 1).saveAsync();
+            }
+        });
+
+        assertTrue(future.isDone());
+        assertEquals(1, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void trackedUpdateOfRetriedBatchIsWritten() throws Exception {
+        SQLiteWrapper trackedWrapper = TestItem.openTracked(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        TestItem item = new TestItem("a", "first", 1);
+        assertTrue(item.saveIn(TestItem.TRACKED_DATABASE_NAME));
+
+        trackedWrapper.enableGroupCommit(500, 100);
+        try {
+            item.name = "changed";
+            //the failed write rolls back the batch after the update ran, the update runs again in the retry
+            Future<Boolean> updateFuture = item.updateAsyncIn(TestItem.TRACKED_DATABASE_NAME);
+            Future<Boolean> failedFuture = trackedWrapper.submitWrite(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    throw new IllegalStateException("failed write");
+                }
+            });
+
+            assertTrue(updateFuture.get(5, TimeUnit.SECONDS));
+            try {
+                failedFuture.get(5, TimeUnit.SECONDS);
+                fail("failed write must fail its future");
+            } catch (ExecutionException e){
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            trackedWrapper.disableGroupCommit();
+        }
+
+        TestItem stored = trackedWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{"a"});
+        assertEquals("changed", stored.name);
+    }
+}
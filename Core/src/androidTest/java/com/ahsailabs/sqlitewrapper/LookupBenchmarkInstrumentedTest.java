@@ -0,0 +1,126 @@
+package com.ahsailabs.sqlitewrapper;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * cost of the secure Lookup paths: cipher lookup per call against a reused cipher, reads with and without the
+ * value cache, and single writes against one batch. timings are written to logcat, run with: adb logcat -s SQLWBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class LookupBenchmarkInstrumentedTest {
+    private static final String TAG = "SQLWBenchmark";
+    private static final int OPERATION_COUNT = 2000;
+    private static final int KEY_COUNT = 200;
+
+    @Before
+    public void setUp() {
+        Lookup.init(InstrumentationRegistry.getInstrumentation().getTargetContext(), true);
+    }
+
+    @After
+    public void tearDown() {
+        //same as the defaults of Lookup
+        Lookup.setCacheLimits(512, 256 * 1024);
+    }
+
+    @Test
+    public void cipherPerCallAgainstReusedCipher() throws Exception {
+        byte[] keyBytes = new byte[16];
+        byte[] iv = new byte[16];
+        new SecureRandom().nextBytes(keyBytes);
+        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
+        byte[] plain = "a secure lookup value".getBytes("UTF-8");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+            cipher.doFinal(plain);
+        }
+        long perCallNanos = (System.nanoTime() - start) / OPERATION_COUNT;
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        start = System.nanoTime();
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+            cipher.doFinal(plain);
+        }
+        long reusedNanos = (System.nanoTime() - start) / OPERATION_COUNT;
+
+        Log.i(TAG, String.format("encrypt, Cipher.getInstance per call: %d ns/op, reused cipher: %d ns/op",
+                perCallNanos, reusedNanos));
+    }
+
+    @Test
+    public void secureReadsWithAndWithoutCache() {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            Lookup.setS("bench_key_" + i, "value " + i);
+        }
+
+        Lookup.setCacheLimits(0, 0);
+        long uncachedNanos = readAll();
+
+        Lookup.setCacheLimits(512, 256 * 1024);
+        Lookup.preloadCacheS(keys());
+        long cachedNanos = readAll();
+
+        Log.i(TAG, String.format("getS, cache off: %d ns/op, cache on: %d ns/op", uncachedNanos, cachedNanos));
+    }
+
+    @Test
+    public void secureSingleWritesAgainstBatch() {
+        long start = System.nanoTime();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            Lookup.setS("bench_key_" + i, "single " + i);
+        }
+        long singleNanos = (System.nanoTime() - start) / KEY_COUNT;
+
+        Map<String, String> valueMap = new LinkedHashMap<String, String>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            valueMap.put("bench_key_" + i, "batch " + i);
+        }
+        start = System.nanoTime();
+        Lookup.setAllS(valueMap);
+        long batchNanos = (System.nanoTime() - start) / KEY_COUNT;
+
+        assertEquals("batch 0", Lookup.getS("bench_key_0", null));
+        Log.i(TAG, String.format("setS one by one: %d ns/op, setAllS: %d ns/op", singleNanos, batchNanos));
+    }
+
+    //average nanoseconds per getS over OPERATION_COUNT reads
+    private long readAll() {
+        String[] keys = keys();
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            String key = keys[i % KEY_COUNT];
+            assertNotNull(Lookup.getS(key, null));
+        }
+        return (System.nanoTime() - start) / OPERATION_COUNT;
+    }
+
+    private String[] keys() {
+        String[] keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "bench_key_" + i;
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,281 @@
+package com.ahsailabs.sqlitewrapper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * applied writes of Lookup, they must be readable at once and survive the flush. the value cache is checked
+ * directly and through Lookup.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LookupInstrumentedTest {
+
+    @Before
+    public void setUp() {
+        Lookup.init(InstrumentationRegistry.getInstrumentation().getTargetContext(), true);
+        //scheduled flush should not run in the middle of a test
+        Lookup.setApplyFlushDelay(60000);
+        Lookup.flush();
+    }
+
+    @Test
+    public void appliedValueIsReadBeforeAndAfterFlush() {
+        Lookup.apply("apply_string", "value");
+        Lookup.apply("apply_int", 42);
+        assertEquals("value", Lookup.get("apply_string", "default"));
+        assertEquals(42, Lookup.get("apply_int", 0));
+        assertEquals(2, Lookup.getPendingWriteCount());
+
+        Lookup.flush();
+        assertEquals(0, Lookup.getPendingWriteCount());
+
+        //read from the database again
+        Lookup.clearCache();
+        assertEquals("value", Lookup.get("apply_string", "default"));
+        assertEquals(42, Lookup.get("apply_int", 0));
+    }
+
+    @Test
+    public void lastAppliedValueWins() {
+        Lookup.apply("apply_last", "first");
+        Lookup.apply("apply_last", "second");
+        assertEquals(1, Lookup.getPendingWriteCount());
+
+        Lookup.flush();
+        Lookup.clearCache();
+        assertEquals("second", Lookup.get("apply_last", "default"));
+    }
+
+    @Test
+    public void directWriteOverridesPendingApply() {
+        Lookup.apply("apply_direct", "applied");
+        Lookup.set("apply_direct", "direct");
+        assertEquals(0, Lookup.getPendingWriteCount());
+
+        Lookup.flush();
+        Lookup.clearCache();
+        assertEquals("direct", Lookup.get("apply_direct", "default"));
+    }
+
+    @Test
+    public void appliedRemoveIsCommitted() {
+        Lookup.set("apply_remove", "value");
+        Lookup.applyRemove("apply_remove");
+        assertEquals("default", Lookup.get("apply_remove", "default"));
+
+        Lookup.flush();
+        Lookup.clearCache();
+        assertEquals("default", Lookup.get("apply_remove", "default"));
+    }
+
+    @Test
+    public void appliedSecureValueIsCommitted() {
+        Lookup.applyS("apply_secure", "secret");
+        assertEquals("secret", Lookup.getS("apply_secure", "default"));
+
+        Lookup.flush();
+        Lookup.clearCache();
+        assertEquals("secret", Lookup.getS("apply_secure", "default"));
+        //plain and secure keys do not share entries
+        assertEquals("default", Lookup.get("apply_secure", "default"));
+    }
+
+    @Test
+    public void doubleIsReadWithoutRounding() {
+        double[] values = {0.1 + 0.2, Math.PI, -Math.E, 1e-300, Double.MAX_VALUE, Double.MIN_VALUE, 0};
+        for (int i = 0; i < values.length; i++) {
+            Lookup.set("double_" + i, values[i]);
+        }
+
+        Lookup.clearCache();
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Double.doubleToLongBits(values[i]), Double.doubleToLongBits(Lookup.get("double_" + i, -1d)));
+        }
+    }
+
+    @Test
+    public void setAllWritesEveryEntry() {
+        Lookup.apply("set_all_b", "applied");
+        Map<String, String> valueMap = new LinkedHashMap<String, String>();
+        valueMap.put("set_all_a", "one");
+        valueMap.put("set_all_b", "two");
+        Lookup.setAll(valueMap);
+        assertEquals(0, Lookup.getPendingWriteCount());
+
+        Lookup.clearCache();
+        Map<String, String> readMap = Lookup.getAll(new String[]{"set_all_a", "set_all_b", "set_all_c"}, "default");
+        assertEquals("one", readMap.get("set_all_a"));
+        assertEquals("two", readMap.get("set_all_b"));
+        assertEquals("default", readMap.get("set_all_c"));
+    }
+
+    @Test
+    public void typedValuesOfOneKeyAreKept() {
+        Lookup.remove("typed_direct");
+        Lookup.set("typed_direct", "value");
+        Lookup.set("typed_direct", 5);
+        assertEquals("value", Lookup.get("typed_direct", "default"));
+        assertEquals(5, Lookup.get("typed_direct", 0));
+
+        Lookup.clearCache();
+        assertEquals("value", Lookup.get("typed_direct", "default"));
+        assertEquals(5, Lookup.get("typed_direct", 0));
+    }
+
+    @Test
+    public void appliedTypedValuesOfOneKeyAreCommitted() {
+        Lookup.remove("typed_apply");
+        Lookup.apply("typed_apply", "value");
+        Lookup.apply("typed_apply", 5);
+        assertEquals(1, Lookup.getPendingWriteCount());
+        assertEquals("value", Lookup.get("typed_apply", "default"));
+
+        Lookup.flush();
+        Lookup.clearCache();
+        assertEquals("value", Lookup.get("typed_apply", "default"));
+        assertEquals(5, Lookup.get("typed_apply", 0));
+    }
+
+    @Test
+    public void directWriteCommitsPendingValueOfOtherType() {
+        Lookup.remove("typed_mixed");
+        Lookup.apply("typed_mixed", "applied");
+        Lookup.set("typed_mixed", 5);
+        assertEquals(0, Lookup.getPendingWriteCount());
+
+        Lookup.clearCache();
+        assertEquals("applied", Lookup.get("typed_mixed", "default"));
+        assertEquals(5, Lookup.get("typed_mixed", 0));
+    }
+
+    @Test
+    public void removedKeyWrittenAgainHasOnlyNewValue() {
+        Lookup.set("typed_removed", "old");
+        Lookup.applyRemove("typed_removed");
+        Lookup.apply("typed_removed", 5);
+        //the key exists again, its string column is NULL
+        assertNull(Lookup.get("typed_removed", "default"));
+
+        Lookup.flush();
+        Lookup.clearCache();
+        assertNull(Lookup.get("typed_removed", "default"));
+        assertEquals(5, Lookup.get("typed_removed", 0));
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsedByEntryCount() {
+        Lookup.ValueCache cache = new Lookup.ValueCache(2, 1024 * 1024);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        //a is used again, so b is the eldest when c comes in
+        assertNotNull(cache.get("a"));
+        cache.put("c", "3");
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+    }
+
+    @Test
+    public void cacheEvictsByByteBudget() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            value.append('x');
+        }
+        //each entry is estimated at 64 + 2 * 2 + 2 * 200 bytes, two of them do not fit
+        Lookup.ValueCache cache = new Lookup.ValueCache(100, 600);
+        cache.put("k1", value.toString());
+        cache.put("k2", value.toString());
+
+        assertFalse(cache.contains("k1"));
+        assertTrue(cache.contains("k2"));
+
+        //a smaller budget trims what is already cached
+        cache.setLimits(100, 100);
+        assertFalse(cache.contains("k2"));
+    }
+
+    @Test
+    public void cacheCountsHitsAndMisses() {
+        Lookup.ValueCache cache = new Lookup.ValueCache(10, 1024 * 1024);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a").value);
+        assertEquals("1", cache.get("a").value);
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void loadThatRacedWriteIsNotCached() {
+        Lookup.ValueCache cache = new Lookup.ValueCache(10, 1024 * 1024);
+        long stamp = cache.getStamp();
+        //write lands between the start of the load and its result
+        cache.put("a", "written");
+        cache.putLoaded("a", "stale", stamp);
+        cache.putLoaded("b", "stale", stamp);
+
+        assertEquals("written", cache.get("a").value);
+        assertFalse(cache.contains("b"));
+
+        cache.putLoaded("b", "loaded", cache.getStamp());
+        assertEquals("loaded", cache.get("b").value);
+    }
+
+    @Test
+    public void zeroCacheLimitKeepsNothing() {
+        Lookup.ValueCache cache = new Lookup.ValueCache(0, 0);
+        cache.put("a", "1");
+        assertFalse(cache.contains("a"));
+    }
+
+    @Test
+    public void preloadedValuesAreServedByCache() {
+        Lookup.set("preload_a", "one");
+        Lookup.remove("preload_missing");
+        Lookup.clearCache();
+        Lookup.preloadCache("preload_a", "preload_missing");
+
+        long hitCount = Lookup.getCacheHitCount();
+        long missCount = Lookup.getCacheMissCount();
+        assertEquals("one", Lookup.get("preload_a", "default"));
+        assertEquals("default", Lookup.get("preload_missing", "default"));
+        assertEquals(hitCount + 2, Lookup.getCacheHitCount());
+        assertEquals(missCount, Lookup.getCacheMissCount());
+    }
+
+    @Test
+    public void preloadedAbsentKeyIsVisibleAfterSet() {
+        Lookup.remove("preload_absent");
+        Lookup.clearCache();
+        Lookup.preloadCache("preload_absent");
+        assertEquals("default", Lookup.get("preload_absent", "default"));
+        assertEquals(-1, Lookup.get("preload_absent", -1));
+
+        Lookup.set("preload_absent", 5);
+        assertEquals(5, Lookup.get("preload_absent", -1));
+        //the key exists now, its string column is NULL instead of absent
+        assertNull(Lookup.get("preload_absent", "default"));
+    }
+
+    @Test
+    public void preloadedAbsentSecureKeyIsVisibleAfterSet() {
+        Lookup.removeS("preload_absent_secure");
+        Lookup.clearCache();
+        Lookup.preloadCacheS("preload_absent_secure");
+        assertEquals("default", Lookup.getS("preload_absent_secure", "default"));
+
+        Lookup.setS("preload_absent_secure", "secret");
+        assertEquals("secret", Lookup.getS("preload_absent_secure", "default"));
+    }
+}
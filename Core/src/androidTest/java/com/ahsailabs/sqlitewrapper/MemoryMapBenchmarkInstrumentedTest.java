@@ -0,0 +1,59 @@
+package com.ahsailabs.sqlitewrapper;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * full table scans with memory mapped I/O off and on. timings are written to logcat,
+ * run with: adb logcat -s SQLWBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class MemoryMapBenchmarkInstrumentedTest {
+    private static final String TAG = "SQLWBenchmark";
+    private static final int ROW_COUNT = 20000;
+    private static final int SCAN_COUNT = 7;
+
+    @Test
+    public void scanWithAndWithoutMemoryMap() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        SQLiteWrapper mmapOff = TestItem.open(context, "sqlw_bench_mmap_off.db", true,
+                new SQLiteWrapper.TuningProfile().setMmapSize(0));
+        SQLiteWrapper mmapOn = TestItem.open(context, "sqlw_bench_mmap_on.db", true,
+                new SQLiteWrapper.TuningProfile().setMmapSizeRelativeToFile(1.25, 256L * 1024 * 1024));
+
+        long offMillis = medianScanMillis(mmapOff);
+        long onMillis = medianScanMillis(mmapOn);
+
+        SQLiteWrapper.MemoryMapStats stats = mmapOn.refreshMemoryMap();
+        Log.i(TAG, String.format("findAll of %d rows, mmap off: median %d ms", ROW_COUNT, offMillis));
+        Log.i(TAG, String.format("findAll of %d rows, mmap on (%d of %d bytes mapped): median %d ms",
+                ROW_COUNT, stats.getEffectiveBytes(), stats.getDatabaseFileBytes(), onMillis));
+    }
+
+    private long medianScanMillis(SQLiteWrapper sqLiteWrapper) {
+        assertEquals(ROW_COUNT, sqLiteWrapper.saveAll(TestItem.createList("row", ROW_COUNT, 200)));
+
+        //first scan warms the page cache for both runs
+        sqLiteWrapper.findAll(null, TestItem.class);
+        long[] millis = new long[SCAN_COUNT];
+        for (int i = 0; i < SCAN_COUNT; i++) {
+            long start = System.nanoTime();
+            List<TestItem> itemList = sqLiteWrapper.findAll(null, TestItem.class);
+            millis[i] = (System.nanoTime() - start) / 1000000;
+            assertEquals(ROW_COUNT, itemList.size());
+        }
+        Arrays.sort(millis);
+        return millis[SCAN_COUNT / 2];
+    }
+}
@@ -0,0 +1,70 @@
+package com.ahsailabs.sqlitewrapper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * findPage keyset pagination, every row must be reached once in the order of the full query.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PageInstrumentedTest {
+    private SQLiteWrapper sqLiteWrapper;
+
+    @Before
+    public void setUp() {
+        sqLiteWrapper = TestItem.open(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        String[] names = {null, "a", "b", null, "a", "c", null, "b"};
+        for (int i = 0; i < names.length; i++) {
+            assertTrue(new TestItem("key" + i, names[i], i).save());
+        }
+    }
+
+    @Test
+    public void ascendingPagesReachNullOrderValues() {
+        assertEquals(getIds("name ASC, _id ASC"), getPagedIds(false));
+    }
+
+    @Test
+    public void descendingPagesReachNullOrderValues() {
+        assertEquals(getIds("name DESC, _id DESC"), getPagedIds(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageSizeMustBePositive() {
+        sqLiteWrapper.findPage(null, TestItem.class, null, null, "name", false, 0, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void orderColumnMustBeColumnOfTable() {
+        sqLiteWrapper.findPage(null, TestItem.class, null, null, "length(name)", false, 2, null);
+    }
+
+    private List<Long> getPagedIds(boolean isDescending){
+        List<Long> idList = new ArrayList<>();
+        SQLiteWrapper.Page<TestItem> page = sqLiteWrapper.findPage(null, TestItem.class, null, null, "name", isDescending, 3, null);
+        while (page != null) {
+            for (TestItem item : page.getItemList()) {
+                idList.add(item._id);
+            }
+            page = page.nextPage();
+        }
+        return idList;
+    }
+
+    private List<Long> getIds(String orderBy){
+        List<Long> idList = new ArrayList<>();
+        for (TestItem item : sqLiteWrapper.findAll(null, TestItem.class, orderBy, null, null)) {
+            idList.add(item._id);
+        }
+        return idList;
+    }
+}
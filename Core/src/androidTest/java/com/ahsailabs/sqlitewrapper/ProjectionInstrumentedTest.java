@@ -0,0 +1,66 @@
+package com.ahsailabs.sqlitewrapper;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * objects loaded with a projection, update must not write the default values of the fields that were not read.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProjectionInstrumentedTest {
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    @Test
+    public void updateWritesOnlySelectedColumns() {
+        SQLiteWrapper sqLiteWrapper = TestItem.open(context);
+        assertTrue(new TestItem("a", "first", 7).save());
+
+        List<TestItem> itemList = sqLiteWrapper.findAllWithCriteria(null, TestItem.class, new String[]{"name"},
+                "key=?", new String[]{"a"}, null, null, null);
+        TestItem item = itemList.get(0);
+        //count is not read, it holds the default value of an int field
+        assertEquals(Integer.valueOf(0), item.count);
+
+        item.name = "changed";
+        assertTrue(item.update());
+
+        TestItem stored = sqLiteWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{"a"});
+        assertEquals("changed", stored.name);
+        assertEquals(Integer.valueOf(7), stored.count);
+        assertEquals("a", stored.key);
+    }
+
+    @Test
+    public void trackedUpdateWritesChangedUnselectedField() {
+        SQLiteWrapper sqLiteWrapper = TestItem.openTracked(context);
+        assertTrue(new TestItem("a", "first", 7).saveIn(TestItem.TRACKED_DATABASE_NAME));
+
+        TestItem item = sqLiteWrapper.findAll(null, TestItem.class, new String[]{"name"}, null, null, null).get(0);
+        item.name = "changed";
+        assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+
+        TestItem stored = sqLiteWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{"a"});
+        assertEquals("changed", stored.name);
+        assertEquals(Integer.valueOf(7), stored.count);
+
+        //a field set by the caller is dirty even when it was not selected
+        item.count = 9;
+        assertTrue(item.updateIn(TestItem.TRACKED_DATABASE_NAME));
+        assertEquals(Integer.valueOf(9), sqLiteWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{"a"}).count);
+    }
+}
@@ -0,0 +1,135 @@
+package com.ahsailabs.sqlitewrapper;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row used by the instrumented tests, key is unique so it can be the conflict column of upsert.
+ */
+public class TestItem extends SQLiteWrapper.TableClass {
+    public static final String DATABASE_NAME = "sqlw_test.db";
+    //same table with dirty tracking enabled, objects are written with the *In methods
+    public static final String TRACKED_DATABASE_NAME = "sqlw_tracked_test.db";
+
+    public String key;
+    public String name;
+    public Integer count;
+    public byte[] data;
+
+    public TestItem() {
+    }
+
+    public TestItem(String key, String name, Integer count) {
+        this.key = key;
+        this.name = name;
+        this.count = count;
+    }
+
+    @Override
+    protected String getDatabaseName() {
+        return DATABASE_NAME;
+    }
+
+    @Override
+    protected void getObjectData(List<Object> dataList) {
+        dataList.add(key);
+        dataList.add(name);
+        dataList.add(count);
+        dataList.add(data);
+    }
+
+    @Override
+    protected void setObjectData(List<Object> dataList) {
+        key = (String) dataList.get(0);
+        name = (String) dataList.get(1);
+        count = (Integer) dataList.get(2);
+        data = (byte[]) dataList.get(3);
+    }
+
+    //wrapper of the test database with an empty TestItem table
+    public static SQLiteWrapper open(Context context){
+        return open(context, DATABASE_NAME, true, null);
+    }
+
+    //wrapper of the tracked test database with an empty TestItem table
+    public static SQLiteWrapper openTracked(Context context){
+        return open(context, TRACKED_DATABASE_NAME, true, null, true);
+    }
+
+    //separate database per configuration, the wrapper keeps the configuration it was created with
+    public static SQLiteWrapper open(Context context, String databaseName, boolean isWriteAheadLoggingEnabled,
+                                     SQLiteWrapper.TuningProfile tuningProfile){
+        return open(context, databaseName, isWriteAheadLoggingEnabled, tuningProfile, false);
+    }
+
+    private static SQLiteWrapper open(final Context context, final String databaseName, final boolean isWriteAheadLoggingEnabled,
+                                      final SQLiteWrapper.TuningProfile tuningProfile, final boolean isDirtyTrackingEnabled){
+        SQLiteWrapper.addDatabase(new SQLiteWrapper.Database() {
+            @Override
+            public Context getContext() {
+                return context;
+            }
+
+            @Override
+            public String getDatabaseName() {
+                return databaseName;
+            }
+
+            @Override
+            public int getDatabaseVersion() {
+                return 1;
+            }
+
+            @Override
+            public boolean isWriteAheadLoggingEnabled() {
+                return isWriteAheadLoggingEnabled;
+            }
+
+            @Override
+            public SQLiteWrapper.TuningProfile getTuningProfile() {
+                return tuningProfile;
+            }
+
+            @Override
+            public void configure(SQLiteWrapper sqLiteWrapper) {
+                SQLiteWrapper.registerFactory(TestItem.class, new SQLiteWrapper.Factory<TestItem>() {
+                    @Override
+                    public TestItem create() {
+                        return new TestItem();
+                    }
+                });
+                SQLiteWrapper.Table table = new SQLiteWrapper.Table(TestItem.class)
+                        .addStringField("key", false, true)
+                        .addStringField("name")
+                        .addIntField("count")
+                        .addBlobField("data");
+                if(isDirtyTrackingEnabled){
+                    table.enableDirtyTracking();
+                }
+                sqLiteWrapper.addTable(table);
+            }
+        });
+        SQLiteWrapper sqLiteWrapper = SQLiteWrapper.of(databaseName);
+        sqLiteWrapper.deleteAll(null, TestItem.class);
+        return sqLiteWrapper;
+    }
+
+    //rows with keys prefix0..prefix(count-1), written by saveAll
+    public static List<TestItem> createList(String keyPrefix, int count, int nameLength){
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < nameLength; i++) {
+            name.append((char) ('a' + i % 26));
+        }
+        List<TestItem> itemList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            itemList.add(new TestItem(keyPrefix + i, name.toString(), i));
+        }
+        return itemList;
+    }
+
+    public static long count(SQLiteWrapper sqLiteWrapper){
+        return sqLiteWrapper.count(null, TestItem.class, null, null);
+    }
+}
@@ -0,0 +1,231 @@
+package com.ahsailabs.sqlitewrapper;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+/**
+ * inTransaction, nested transactions and the wrapper writes running inside them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TransactionInstrumentedTest {
+    private Context context;
+    private SQLiteWrapper sqLiteWrapper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        sqLiteWrapper = TestItem.open(context);
+    }
+
+    @Test
+    public void commitAllWrites() {
+        int result = sqLiteWrapper.inTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                new TestItem("a", "first", 1).save();
+                new TestItem("b", "second", 2).save();
+                return 2;
+            }
+        });
+
+        assertEquals(2, result);
+        assertEquals(2, TestItem.count(sqLiteWrapper));
+        assertFalse(sqLiteWrapper.isInTransaction());
+    }
+
+    @Test
+    public void exceptionRollsBackAndIsThrownAgain() {
+        try {
+            sqLiteWrapper.inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    new TestItem("a", "first", 1).save();
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("exception must be thrown again");
+        } catch (IllegalStateException e){
+            assertEquals("stop", e.getMessage());
+        }
+
+        assertEquals(0, TestItem.count(sqLiteWrapper));
+        assertFalse(sqLiteWrapper.isInTransaction());
+    }
+
+    @Test
+    public void caughtNestedFailureFailsOuterTransaction() {
+        try {
+            sqLiteWrapper.inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    new TestItem("a", "first", 1).save();
+                    try {
+                        sqLiteWrapper.inTransaction(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                new TestItem("b", "second", 2).save();
+                                throw new IllegalStateException("nested");
+                            }
+                        });
+                    } catch (IllegalStateException e){
+                        //swallowed by the caller, the outer transaction must not commit anyway
+                    }
+                    return null;
+                }
+            });
+            fail("outer transaction must report the nested failure");
+        } catch (SQLException e){
+            //expected
+        }
+
+        assertEquals(0, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void nestedTransactionJoinsOuterCommit() {
+        sqLiteWrapper.inTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                new TestItem("a", "first", 1).save();
+                sqLiteWrapper.inTransaction(SQLiteWrapper.TransactionMode.IMMEDIATE, new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        new TestItem("b", "second", 2).save();
+                        return null;
+                    }
+                });
+                return null;
+            }
+        });
+
+        assertEquals(2, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void skippedRowOfBulkWriteKeepsOuterCommit() {
+        sqLiteWrapper.setBatchChunkSize(2);
+        sqLiteWrapper.inTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                //duplicated key is skipped by saveAll, the other rows stay in the transaction
+                int savedCount = sqLiteWrapper.saveAll(Arrays.asList(
+                        new TestItem("a", "first", 1),
+                        new TestItem("a", "duplicate", 2),
+                        new TestItem("b", "second", 3)));
+                assertEquals(2, savedCount);
+                return null;
+            }
+        });
+
+        assertEquals(2, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void upsertInsideTransactionKeepsOuterCommit() {
+        sqLiteWrapper.inTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertTrue(new TestItem("a", "first", 1).upsert("key"));
+                assertTrue(new TestItem("a", "updated", 2).upsert("key"));
+                return null;
+            }
+        });
+
+        TestItem item = sqLiteWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{"a"});
+        assertEquals("updated", item.name);
+        assertEquals(1, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void writeBlobOfMissingRowKeepsOuterCommit() {
+        sqLiteWrapper.inTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                new TestItem("a", "first", 1).save();
+                assertFalse(sqLiteWrapper.writeBlob("TestItem", "data", Long.MAX_VALUE,
+                        new ByteArrayInputStream(new byte[]{1, 2, 3})));
+                return null;
+            }
+        });
+
+        assertEquals(1, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void deleteByIdsJoinsOuterTransaction() {
+        final TestItem first = new TestItem("a", "first", 1);
+        final TestItem second = new TestItem("b", "second", 2);
+        first.save();
+        second.save();
+
+        try {
+            sqLiteWrapper.inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    assertEquals(2, sqLiteWrapper.deleteByIds(null, TestItem.class, new long[]{first._id, second._id}));
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("exception must be thrown again");
+        } catch (IllegalStateException e){
+            //expected
+        }
+
+        assertEquals(2, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void failedBeginLeavesThreadOutsideTransaction() {
+        //second connection holds the write lock, so begin of the wrapper times out
+        SQLiteDatabase lockDatabase = SQLiteDatabase.openDatabase(context.getDatabasePath(TestItem.DATABASE_NAME).getPath(),
+                null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            lockDatabase.execSQL("BEGIN EXCLUSIVE");
+            try {
+                sqLiteWrapper.inTransaction(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        fail("callable must not run without a transaction");
+                        return null;
+                    }
+                });
+                fail("begin must fail while the database is locked");
+            } catch (SQLException e){
+                //expected
+            }
+            assertFalse(sqLiteWrapper.isInTransaction());
+        } finally {
+            lockDatabase.execSQL("ROLLBACK");
+            lockDatabase.close();
+        }
+
+        //next transaction is a real one again, its exception rolls back the write
+        try {
+            sqLiteWrapper.inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    new TestItem("a", "first", 1).save();
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail("exception must be thrown again");
+        } catch (IllegalStateException e){
+            //expected
+        }
+        assertEquals(0, TestItem.count(sqLiteWrapper));
+    }
+}
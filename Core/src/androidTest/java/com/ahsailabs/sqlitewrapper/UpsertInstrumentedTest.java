@@ -0,0 +1,67 @@
+package com.ahsailabs.sqlitewrapper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * upsert and upsertAll, the row of the conflict key is updated in place and keeps its _id.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UpsertInstrumentedTest {
+    private SQLiteWrapper sqLiteWrapper;
+
+    @Before
+    public void setUp() {
+        sqLiteWrapper = TestItem.open(InstrumentationRegistry.getInstrumentation().getTargetContext());
+    }
+
+    @Test
+    public void upsertInsertsThenUpdatesSameRow() {
+        TestItem item = new TestItem("a", "first", 1);
+        assertTrue(item.upsert("key"));
+        assertNotNull(item._id);
+        long id = item._id;
+
+        TestItem sameKey = new TestItem("a", "updated", 2);
+        assertTrue(sameKey.upsert("key"));
+        assertEquals(id, (long) sameKey._id);
+
+        TestItem stored = sqLiteWrapper.findById(id, null, TestItem.class);
+        assertEquals("updated", stored.name);
+        assertEquals(2, (int) stored.count);
+        assertEquals(1, TestItem.count(sqLiteWrapper));
+    }
+
+    @Test
+    public void upsertUsesFirstUniqueColumnByDefault() {
+        assertTrue(new TestItem("a", "first", 1).upsert());
+        assertTrue(new TestItem("a", "updated", 2).upsert());
+
+        assertEquals(1, TestItem.count(sqLiteWrapper));
+        TestItem stored = sqLiteWrapper.findFirstWithCriteria(null, TestItem.class, "key=?", new String[]{"a"});
+        assertEquals("updated", stored.name);
+    }
+
+    @Test
+    public void upsertAllMixesInsertAndUpdate() {
+        TestItem existing = new TestItem("a", "first", 1);
+        existing.save();
+
+        TestItem update = new TestItem("a", "updated", 2);
+        TestItem insert = new TestItem("b", "second", 3);
+        assertEquals(2, sqLiteWrapper.upsertAll(Arrays.asList(update, insert), "key"));
+
+        assertEquals(existing._id, update._id);
+        assertNotNull(insert._id);
+        assertEquals(2, TestItem.count(sqLiteWrapper));
+        assertEquals("updated", sqLiteWrapper.findById(existing._id, null, TestItem.class).name);
+    }
+}
@@ -0,0 +1,76 @@
+package com.ahsailabs.sqlitewrapper;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * reads running next to a writer, with and without write-ahead logging. timings are written to logcat,
+ * run with: adb logcat -s SQLWBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class WalBenchmarkInstrumentedTest {
+    private static final String TAG = "SQLWBenchmark";
+    private static final int ROW_COUNT = 2000;
+    private static final int WRITE_BATCH_COUNT = 50;
+    private static final int WRITE_BATCH_SIZE = 100;
+
+    @Test
+    public void concurrentReadsWithAndWithoutWal() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        long[] walOff = runConcurrentReads(TestItem.open(context, "sqlw_bench_wal_off.db", false, null));
+        long[] walOn = runConcurrentReads(TestItem.open(context, "sqlw_bench_wal_on.db", true, null));
+
+        Log.i(TAG, String.format("concurrent reads, WAL off: %d reads, median %d us, p95 %d us, writer %d ms",
+                walOff[0], walOff[1], walOff[2], walOff[3]));
+        Log.i(TAG, String.format("concurrent reads, WAL on: %d reads, median %d us, p95 %d us, writer %d ms",
+                walOn[0], walOn[1], walOn[2], walOn[3]));
+    }
+
+    //return read count, median and p95 read latency in microseconds, writer time in milliseconds
+    private long[] runConcurrentReads(final SQLiteWrapper sqLiteWrapper) throws Exception {
+        assertEquals(ROW_COUNT, sqLiteWrapper.saveAll(TestItem.createList("row", ROW_COUNT, 32)));
+
+        final AtomicInteger writtenBatchCount = new AtomicInteger();
+        final long[] writerMillis = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                for (int i = 0; i < WRITE_BATCH_COUNT; i++) {
+                    sqLiteWrapper.saveAll(TestItem.createList("write" + i + "_", WRITE_BATCH_SIZE, 32));
+                    writtenBatchCount.incrementAndGet();
+                }
+                writerMillis[0] = (System.nanoTime() - start) / 1000000;
+            }
+        });
+        writer.start();
+
+        long[] latencies = new long[100000];
+        int readCount = 0;
+        while (writer.isAlive() && readCount < latencies.length) {
+            long start = System.nanoTime();
+            List<TestItem> itemList = sqLiteWrapper.findAllWithCriteria(null, TestItem.class, "count < ?", new String[]{"50"});
+            latencies[readCount++] = (System.nanoTime() - start) / 1000;
+            assertNotNull(itemList);
+        }
+        writer.join();
+        assertEquals(WRITE_BATCH_COUNT, writtenBatchCount.get());
+
+        Arrays.sort(latencies, 0, readCount);
+        long median = readCount == 0 ? 0 : latencies[readCount / 2];
+        long p95 = readCount == 0 ? 0 : latencies[Math.min(readCount - 1, readCount * 95 / 100)];
+        return new long[]{readCount, median, p95, writerMillis[0]};
+    }
+}
@@ -1,23 +1,45 @@
 package com.ahsailabs.sqlitewrapper;
 
 import android.content.Context;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDoneException;
 import android.os.Build;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.Log;
 import android.util.Base64;
 
 import com.google.gson.Gson;
 
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -25,6 +47,7 @@ import javax.crypto.spec.SecretKeySpec;
  * Created by ahmad s on 2019-06-30.
  */
 public class Lookup {
+    private static final String TAG = Lookup.class.getName();
     private static final int KEY_SIZE = 256;
     // requires Spongycastle crypto libraries
     // private static final String AES_KEY_ALG = "AES/GCM/NoPadding";
@@ -36,10 +59,65 @@ public class Lookup {
     // change to SC if using Spongycastle crypto libraries
     private static final String PROVIDER = "BC";
     private static byte[] sKey;
+    private static volatile SecretKeySpec secretKeySpec;
+    //provider lookup is the expensive part of a cipher, each thread keeps one per mode
+    private static final ThreadLocal<CipherHolder> encryptCipher = new ThreadLocal<CipherHolder>();
+    private static final ThreadLocal<CipherHolder> decryptCipher = new ThreadLocal<CipherHolder>();
+
+    //secure rows are stored under an hmac of the key and hold an encrypt-then-mac value,
+    //aes/cbc with a random iv followed by an hmac over iv and ciphertext. every key is derived from sKey
+    private static final String HMAC_ALG = "HmacSHA256";
+    private static final String VALUE_CIPHER_ALG = "AES/CBC/PKCS5Padding";
+    private static final String INDEX_KEY_PREFIX = "h:";
+    private static final String VALUE_PREFIX = "v2:";
+    private static final int IV_SIZE = 16;
+    private static final int TAG_SIZE = 32;
+    private static final SecureRandom secureRandom = new SecureRandom();
+    private static volatile SecretKeySpec keyIndexKeySpec;
+    private static volatile SecretKeySpec valueEncryptionKeySpec;
+    private static volatile SecretKeySpec valueMacKeySpec;
+    private static final ThreadLocal<MacHolder> keyIndexMac = new ThreadLocal<MacHolder>();
+    private static final ThreadLocal<MacHolder> valueMac = new ThreadLocal<MacHolder>();
+    private static final ThreadLocal<Cipher> valueCipher = new ThreadLocal<Cipher>();
 
     private static boolean isSecureEnabled = false;
     private static SQLiteWrapper sqLiteWrapper;
 
+    //key is unique, so every read is an index lookup of one column
+    private static final String LOOKUP_TABLE = "TLookup";
+    private static final String KEY_COLUMN = "key";
+    private static final String SELECT_STRING_SQL = "SELECT string FROM TLookup WHERE key=?";
+    private static final String SELECT_BOOLEAN_SQL = "SELECT boolean FROM TLookup WHERE key=?";
+    private static final String SELECT_INTEGER_SQL = "SELECT integer FROM TLookup WHERE key=?";
+    private static final String SELECT_LONG_SQL = "SELECT long FROM TLookup WHERE key=?";
+    private static final String SELECT_FLOAT_SQL = "SELECT float FROM TLookup WHERE key=?";
+    private static final String SELECT_DOUBLE_SQL = "SELECT double FROM TLookup WHERE key=?";
+
+    //decoded values, plain entries are kept per type since every type reads its own column,
+    //secure entries keep the decrypted string that every secure type parses
+    private static final int DEFAULT_CACHE_MAX_ENTRIES = 512;
+    private static final long DEFAULT_CACHE_MAX_BYTES = 256 * 1024;
+    //stays well below the sqlite host parameter limit
+    private static final int PRELOAD_CHUNK_SIZE = 500;
+    private static final char TYPE_STRING = 'S';
+    private static final char TYPE_BOOLEAN = 'Z';
+    private static final char TYPE_INT = 'I';
+    private static final char TYPE_LONG = 'J';
+    private static final char TYPE_FLOAT = 'F';
+    private static final char TYPE_DOUBLE = 'D';
+    private static final char[] PLAIN_CACHE_TYPES = {TYPE_STRING, TYPE_BOOLEAN, TYPE_INT, TYPE_LONG, TYPE_FLOAT, TYPE_DOUBLE};
+    private static final String SECURE_CACHE_PREFIX = "s:";
+    private static final Object ABSENT = new Object();
+    private static final ValueCache valueCache = new ValueCache(DEFAULT_CACHE_MAX_ENTRIES, DEFAULT_CACHE_MAX_BYTES);
+
+    //applied writes not committed yet, at most one per key
+    private static final long DEFAULT_APPLY_FLUSH_DELAY_MILLIS = 100;
+    private static final Map<String, PendingWrite> pendingMap = new LinkedHashMap<String, PendingWrite>();
+    private static final Object writeLock = new Object();
+    private static boolean isApplyFlushScheduled = false;
+    private static volatile long applyFlushDelayMillis = DEFAULT_APPLY_FLUSH_DELAY_MILLIS;
+    private static ScheduledExecutorService applyExecutor;
+
 
     //keystorehelper
     private static String keyAlias = null;
@@ -83,6 +161,10 @@ public class Lookup {
                     value = KeyStoreHelper.decrypt(keyAlias, value);
                 }
                 sKey = decode(value);
+                secretKeySpec = new SecretKeySpec(sKey, AES_KEY_ALG);
+                keyIndexKeySpec = new SecretKeySpec(deriveKey("lookup key index"), HMAC_ALG);
+                valueEncryptionKeySpec = new SecretKeySpec(deriveKey("lookup value encryption"), AES_KEY_ALG);
+                valueMacKeySpec = new SecretKeySpec(deriveKey("lookup value mac"), HMAC_ALG);
             } catch (Exception e) {
                 throw new IllegalStateException(e);
             }
@@ -202,29 +284,141 @@ public class Lookup {
         return msg.toString();
     }
 
-    private static String encrypt(String plainText) {
+    //legacy scheme, deterministic aes of both key and value. only used to find and migrate old rows
+    private static String legacyEncrypt(String plainText) {
         if (plainText == null || plainText.length() == 0) {
             return plainText;
         }
 
         try {
-            final Cipher cipher = Cipher.getInstance(AES_KEY_ALG, PROVIDER);
-            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sKey, AES_KEY_ALG));
-            return encode(cipher.doFinal(plainText.getBytes("UTF-8")));
+            return encode(getCipher(encryptCipher, Cipher.ENCRYPT_MODE).doFinal(plainText.getBytes("UTF-8")));
         } catch (Exception e) {
+            //the cipher state is unknown after a failure
+            encryptCipher.remove();
             return null;
         }
     }
-    private static String decrypt(String ciphertext) {
+    private static String legacyDecrypt(String ciphertext) {
         if (ciphertext == null || ciphertext.length() == 0) {
             return ciphertext;
         }
 
         try {
-            final Cipher cipher = Cipher.getInstance(AES_KEY_ALG, PROVIDER);
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(sKey, AES_KEY_ALG));
-            return new String(cipher.doFinal(decode(ciphertext)), "UTF-8");
+            return new String(getCipher(decryptCipher, Cipher.DECRYPT_MODE).doFinal(decode(ciphertext)), "UTF-8");
+        } catch (Exception e) {
+            decryptCipher.remove();
+            return null;
+        }
+    }
+
+    //doFinal resets the cipher to its initialized state, so it is reused until the key changes
+    private static Cipher getCipher(ThreadLocal<CipherHolder> cipherThreadLocal, int mode) throws GeneralSecurityException {
+        SecretKeySpec keySpec = secretKeySpec;
+        CipherHolder cipherHolder = cipherThreadLocal.get();
+        if(cipherHolder == null || cipherHolder.keySpec != keySpec){
+            Cipher cipher = Cipher.getInstance(AES_KEY_ALG, PROVIDER);
+            cipher.init(mode, keySpec);
+            cipherHolder = new CipherHolder(keySpec, cipher);
+            cipherThreadLocal.set(cipherHolder);
+        }
+        return cipherHolder.cipher;
+    }
+
+    private static byte[] deriveKey(String label) throws GeneralSecurityException, UnsupportedEncodingException {
+        Mac mac = Mac.getInstance(HMAC_ALG);
+        mac.init(new SecretKeySpec(sKey, HMAC_ALG));
+        return mac.doFinal(label.getBytes("UTF-8"));
+    }
+
+    private static Mac getMac(ThreadLocal<MacHolder> macThreadLocal, SecretKeySpec keySpec) throws GeneralSecurityException {
+        MacHolder macHolder = macThreadLocal.get();
+        if(macHolder == null || macHolder.keySpec != keySpec){
+            Mac mac = Mac.getInstance(HMAC_ALG);
+            mac.init(keySpec);
+            macHolder = new MacHolder(keySpec, mac);
+            macThreadLocal.set(macHolder);
+        }
+        return macHolder.mac;
+    }
+
+    private static Cipher getValueCipher() throws GeneralSecurityException {
+        Cipher cipher = valueCipher.get();
+        if(cipher == null){
+            cipher = Cipher.getInstance(VALUE_CIPHER_ALG, PROVIDER);
+            valueCipher.set(cipher);
+        }
+        return cipher;
+    }
+
+    //stored form of a secure key, equal keys give equal index keys so the unique index still serves lookups
+    private static String indexKey(String key){
+        if (key == null) {
+            return null;
+        }
+
+        try {
+            return INDEX_KEY_PREFIX + encode(getMac(keyIndexMac, keyIndexKeySpec).doFinal(key.getBytes("UTF-8")));
+        } catch (Exception e) {
+            keyIndexMac.remove();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encryptValue(String plainText) {
+        if (plainText == null) {
+            return null;
+        }
+
+        try {
+            byte[] iv = new byte[IV_SIZE];
+            secureRandom.nextBytes(iv);
+            Cipher cipher = getValueCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, valueEncryptionKeySpec, new IvParameterSpec(iv));
+            byte[] cipherText = cipher.doFinal(plainText.getBytes("UTF-8"));
+
+            Mac mac = getMac(valueMac, valueMacKeySpec);
+            mac.update(iv);
+            mac.update(cipherText);
+            byte[] tag = mac.doFinal();
+
+            byte[] data = new byte[IV_SIZE + cipherText.length + TAG_SIZE];
+            System.arraycopy(iv, 0, data, 0, IV_SIZE);
+            System.arraycopy(cipherText, 0, data, IV_SIZE, cipherText.length);
+            System.arraycopy(tag, 0, data, IV_SIZE + cipherText.length, TAG_SIZE);
+            return VALUE_PREFIX + encode(data);
+        } catch (Exception e) {
+            valueCipher.remove();
+            valueMac.remove();
+            return null;
+        }
+    }
+
+    //null when the value was tampered with or is not in the current format
+    private static String decryptValue(String storedValue) {
+        if (storedValue == null || !storedValue.startsWith(VALUE_PREFIX)) {
+            return null;
+        }
+
+        try {
+            byte[] data = decode(storedValue.substring(VALUE_PREFIX.length()));
+            int cipherTextLength = data.length - IV_SIZE - TAG_SIZE;
+            if (cipherTextLength <= 0) {
+                return null;
+            }
+
+            Mac mac = getMac(valueMac, valueMacKeySpec);
+            mac.update(data, 0, IV_SIZE + cipherTextLength);
+            byte[] tag = Arrays.copyOfRange(data, IV_SIZE + cipherTextLength, data.length);
+            if (!MessageDigest.isEqual(mac.doFinal(), tag)) {
+                return null;
+            }
+
+            Cipher cipher = getValueCipher();
+            cipher.init(Cipher.DECRYPT_MODE, valueEncryptionKeySpec, new IvParameterSpec(data, 0, IV_SIZE));
+            return new String(cipher.doFinal(data, IV_SIZE, cipherTextLength), "UTF-8");
         } catch (Exception e) {
+            valueCipher.remove();
+            valueMac.remove();
             return null;
         }
     }
@@ -261,40 +455,36 @@ public class Lookup {
         set(key,value, true);
     }
 
+    public static void apply(String key, String value){
+        applyWrite(key, false, TYPE_STRING, value);
+    }
+
+    public static void applyS(String key, String value){
+        checkSecureCondition();
+        applyWrite(key, true, TYPE_STRING, value);
+    }
+
     private static String get(String key, String defaultValue, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
+            Object value = readSecure(key);
+            return value == ABSENT ? defaultValue : (String) value;
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        return lookup==null?defaultValue:(isSecureEnabled ?decrypt(lookup.getString()):lookup.getString());
+        Object value = readPlain(TYPE_STRING, key);
+        return value == ABSENT ? defaultValue : (String) value;
     }
 
-
     private static void set(String key, String value, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        if(lookup != null){
-            lookup.setString(isSecureEnabled ?encrypt(value):value);
-            lookup.update();
-        } else {
-            lookup = new SQLiteWrapper.TLookup();
-            lookup.setKey(key);
-            lookup.setString(isSecureEnabled ?encrypt(value):value);
-            lookup.save();
-        }
+        write(key, isSecureEnabled, TYPE_STRING, value);
     }
 
-
     //boolean
     public static boolean get(String key, boolean defaultValue){
         return get(key, defaultValue, false);
@@ -312,47 +502,36 @@ public class Lookup {
         set(key,value, true);
     }
 
+    public static void apply(String key, boolean value){
+        applyWrite(key, false, TYPE_BOOLEAN, value);
+    }
+
+    public static void applyS(String key, boolean value){
+        checkSecureCondition();
+        applyWrite(key, true, TYPE_BOOLEAN, Boolean.toString(value));
+    }
+
     private static boolean get(String key, boolean defaultValue, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
+            Object value = readSecure(key);
+            return value == ABSENT ? defaultValue : Boolean.parseBoolean((String) value);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        return lookup==null?defaultValue:(isSecureEnabled ?Boolean.parseBoolean(decrypt(lookup.getString())):lookup.getBoolean());
+        Object value = readPlain(TYPE_BOOLEAN, key);
+        return value == ABSENT ? defaultValue : (Boolean) value;
     }
 
     private static void set(String key, boolean value, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        if(lookup != null){
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Boolean.toString(value)));
-            } else {
-                lookup.setBoolean(value);
-            }
-            lookup.update();
-        } else {
-            lookup = new SQLiteWrapper.TLookup();
-            lookup.setKey(key);
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Boolean.toString(value)));
-            } else {
-                lookup.setBoolean(value);
-            }
-            lookup.save();
-        }
+        write(key, isSecureEnabled, TYPE_BOOLEAN, isSecureEnabled ? Boolean.toString(value) : value);
     }
 
-
     //int
     public static int get(String key, int defaultValue){
         return get(key, defaultValue, false);
@@ -370,47 +549,36 @@ public class Lookup {
         set(key,value, true);
     }
 
+    public static void apply(String key, int value){
+        applyWrite(key, false, TYPE_INT, value);
+    }
+
+    public static void applyS(String key, int value){
+        checkSecureCondition();
+        applyWrite(key, true, TYPE_INT, Integer.toString(value));
+    }
+
     private static int get(String key, int defaultValue, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
+            Object value = readSecure(key);
+            return value == ABSENT ? defaultValue : Integer.parseInt((String) value);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        return lookup==null?defaultValue:(isSecureEnabled ?Integer.parseInt(decrypt(lookup.getString())):lookup.getInt());
+        Object value = readPlain(TYPE_INT, key);
+        return value == ABSENT ? defaultValue : (Integer) value;
     }
 
     private static void set(String key, int value, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        if(lookup != null){
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Integer.toString(value)));
-            } else {
-                lookup.setInt(value);
-            }
-            lookup.update();
-        } else {
-            lookup = new SQLiteWrapper.TLookup();
-            lookup.setKey(key);
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Integer.toString(value)));
-            } else {
-                lookup.setInt(value);
-            }
-            lookup.save();
-        }
+        write(key, isSecureEnabled, TYPE_INT, isSecureEnabled ? Integer.toString(value) : value);
     }
 
-
     //long
     public static long get(String key, long defaultValue){
         return get(key, defaultValue, false);
@@ -428,47 +596,36 @@ public class Lookup {
         set(key,value, true);
     }
 
+    public static void apply(String key, long value){
+        applyWrite(key, false, TYPE_LONG, value);
+    }
+
+    public static void applyS(String key, long value){
+        checkSecureCondition();
+        applyWrite(key, true, TYPE_LONG, Long.toString(value));
+    }
+
     private static long get(String key, long defaultValue, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
+            Object value = readSecure(key);
+            return value == ABSENT ? defaultValue : Long.parseLong((String) value);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        return lookup==null?defaultValue:(isSecureEnabled ?Long.parseLong(decrypt(lookup.getString())):lookup.getLong());
+        Object value = readPlain(TYPE_LONG, key);
+        return value == ABSENT ? defaultValue : (Long) value;
     }
 
     private static void set(String key, long value, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        if(lookup != null){
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Long.toString(value)));
-            } else {
-                lookup.setLong(value);
-            }
-            lookup.update();
-        } else {
-            lookup = new SQLiteWrapper.TLookup();
-            lookup.setKey(key);
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Long.toString(value)));
-            } else {
-                lookup.setLong(value);
-            }
-            lookup.save();
-        }
+        write(key, isSecureEnabled, TYPE_LONG, isSecureEnabled ? Long.toString(value) : value);
     }
 
-
     //float
     public static float get(String key, float defaultValue){
         return get(key, defaultValue, false);
@@ -486,47 +643,36 @@ public class Lookup {
         set(key,value, true);
     }
 
+    public static void apply(String key, float value){
+        applyWrite(key, false, TYPE_FLOAT, value);
+    }
+
+    public static void applyS(String key, float value){
+        checkSecureCondition();
+        applyWrite(key, true, TYPE_FLOAT, Float.toString(value));
+    }
+
     private static float get(String key, float defaultValue, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
+            Object value = readSecure(key);
+            return value == ABSENT ? defaultValue : Float.parseFloat((String) value);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        return lookup==null?defaultValue:(isSecureEnabled ?Float.parseFloat(decrypt(lookup.getString())):lookup.getFloat());
+        Object value = readPlain(TYPE_FLOAT, key);
+        return value == ABSENT ? defaultValue : (Float) value;
     }
 
     private static void set(String key, float value, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        if(lookup != null){
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Float.toString(value)));
-            } else {
-                lookup.setFloat(value);
-            }
-            lookup.update();
-        } else {
-            lookup = new SQLiteWrapper.TLookup();
-            lookup.setKey(key);
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Float.toString(value)));
-            } else {
-                lookup.setFloat(value);
-            }
-            lookup.save();
-        }
+        write(key, isSecureEnabled, TYPE_FLOAT, isSecureEnabled ? Float.toString(value) : value);
     }
 
-
     //double
     public static double get(String key, double defaultValue){
         return get(key, defaultValue, false);
@@ -544,66 +690,697 @@ public class Lookup {
         set(key,value, true);
     }
 
+    public static void apply(String key, double value){
+        applyWrite(key, false, TYPE_DOUBLE, value);
+    }
+
+    public static void applyS(String key, double value){
+        checkSecureCondition();
+        applyWrite(key, true, TYPE_DOUBLE, Double.toString(value));
+    }
+
     private static double get(String key, double defaultValue, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
+            Object value = readSecure(key);
+            return value == ABSENT ? defaultValue : Double.parseDouble((String) value);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        return lookup==null?defaultValue:(isSecureEnabled ?Double.parseDouble(decrypt(lookup.getString())):lookup.getDouble());
+        Object value = readPlain(TYPE_DOUBLE, key);
+        return value == ABSENT ? defaultValue : (Double) value;
     }
 
     private static void set(String key, double value, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
         }
 
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        if(lookup != null){
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Double.toString(value)));
+        write(key, isSecureEnabled, TYPE_DOUBLE, isSecureEnabled ? Double.toString(value) : value);
+    }
+
+
+
+    public static void remove(String key){
+        remove(key, false);
+    }
+
+    public static void removeS(String key){
+        remove(key, true);
+    }
+
+    public static void applyRemove(String key){
+        applyWrite(key, false, TYPE_STRING, null, true);
+    }
+
+    public static void applyRemoveS(String key){
+        checkSecureCondition();
+        applyWrite(key, true, TYPE_STRING, null, true);
+    }
+
+    //batch
+    /**
+     * write every entry in one transaction, all or none. throw SQLException when an entry can not be written
+     */
+    public static void setAll(Map<String, String> valueMap){
+        setAll(valueMap, false);
+    }
+
+    public static void setAllS(Map<String, String> valueMap){
+        setAll(valueMap, true);
+    }
+
+    /**
+     * read the given keys, missing ones map to defaultValue. keys that are not cached are read with one query
+     */
+    public static Map<String, String> getAll(String[] keys, String defaultValue){
+        return getAll(keys, defaultValue, false);
+    }
+
+    public static Map<String, String> getAllS(String[] keys, String defaultValue){
+        return getAll(keys, defaultValue, true);
+    }
+
+    private static void setAll(final Map<String, String> valueMap, final boolean isSecureEnabled){
+        checkCondition();
+        if(isSecureEnabled){
+            checkSecureCondition();
+        }
+        if(valueMap == null || valueMap.isEmpty()){
+            return;
+        }
+
+        synchronized (writeLock) {
+            //applied writes of the keys are committed first, the entries only replace the string column
+            final List<PendingWrite> takenList = new ArrayList<PendingWrite>();
+            for (String key : valueMap.keySet()) {
+                PendingWrite pendingWrite = takePending(key, isSecureEnabled);
+                if(pendingWrite != null){
+                    takenList.add(pendingWrite);
+                }
+            }
+
+            //all entries or none, the cache is only touched once the commit is done
+            try {
+                sqLiteWrapper.inTransaction(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (PendingWrite pendingWrite : takenList) {
+                            if(!executePending(pendingWrite)){
+                                throw new SQLException("Lookup setAll failed, no entry is written");
+                            }
+                        }
+                        for (Map.Entry<String, String> entry : valueMap.entrySet()) {
+                            if(!upsertLookup(entry.getKey(), isSecureEnabled, TYPE_STRING, entry.getValue())){
+                                throw new SQLException("Lookup setAll failed, no entry is written");
+                            }
+                        }
+                        return null;
+                    }
+                });
+            } catch (RuntimeException e){
+                for (PendingWrite pendingWrite : takenList) {
+                    restorePending(pendingWrite);
+                }
+                throw e;
+            }
+
+            for (Map.Entry<String, String> entry : valueMap.entrySet()) {
+                cacheWritten(entry.getKey(), isSecureEnabled, TYPE_STRING, entry.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> getAll(String[] keys, String defaultValue, boolean isSecureEnabled){
+        checkCondition();
+        if(isSecureEnabled){
+            checkSecureCondition();
+        }
+
+        Map<String, String> valueMap = new LinkedHashMap<String, String>();
+        if(keys == null){
+            return valueMap;
+        }
+
+        List<String> missingKeyList = new ArrayList<String>();
+        for(String key : keys){
+            PendingWrite pendingWrite = getPending(key, isSecureEnabled);
+            if((pendingWrite == null || !pendingWrite.hasValue(TYPE_STRING)) && !valueCache.contains(isSecureEnabled ?
+                    SECURE_CACHE_PREFIX + key : plainCacheKey(TYPE_STRING, key))){
+                missingKeyList.add(key);
+            }
+        }
+        if(!missingKeyList.isEmpty()){
+            preloadCache(missingKeyList.toArray(new String[missingKeyList.size()]), isSecureEnabled);
+        }
+
+        for(String key : keys){
+            Object value = isSecureEnabled ? readSecure(key) : readPlain(TYPE_STRING, key);
+            valueMap.put(key, value == ABSENT ? defaultValue : (String) value);
+        }
+        return valueMap;
+    }
+
+    private static void remove(String key, boolean isSecureEnabled){
+        checkCondition();
+        if(isSecureEnabled){
+            checkSecureCondition();
+        }
+
+        //a direct write supersedes any applied write of the same key that is not committed yet
+        synchronized (writeLock) {
+            dropPending(key, isSecureEnabled);
+            deleteLookup(key, isSecureEnabled);
+            cacheRemoved(key, isSecureEnabled);
+        }
+    }
+
+    private static void write(final String key, final boolean isSecureEnabled, final char type, final Object value){
+        synchronized (writeLock) {
+            //applied writes of the key are committed first, this write only replaces one column of the row
+            final PendingWrite pendingWrite = takePending(key, isSecureEnabled);
+            boolean isWritten;
+            if(pendingWrite == null){
+                isWritten = upsertLookup(key, isSecureEnabled, type, value);
+            } else {
+                try {
+                    isWritten = sqLiteWrapper.inTransaction(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            if(!executePending(pendingWrite) || !upsertLookup(key, isSecureEnabled, type, value)){
+                                throw new SQLException("Lookup write of " + key + " failed");
+                            }
+                            return true;
+                        }
+                    });
+                } catch (RuntimeException e){
+                    restorePending(pendingWrite);
+                    if(!(e instanceof SQLException)){
+                        throw e;
+                    }
+                    isWritten = false;
+                }
+            }
+
+            if(isWritten){
+                cacheWritten(key, isSecureEnabled, type, value);
             } else {
-                lookup.setDouble(value);
+                cacheInvalidate(key, isSecureEnabled);
             }
-            lookup.update();
+        }
+    }
+
+    private static String getColumnName(char type){
+        switch (type){
+            case TYPE_BOOLEAN:
+                return "boolean";
+            case TYPE_INT:
+                return "integer";
+            case TYPE_LONG:
+                return "long";
+            case TYPE_FLOAT:
+                return "float";
+            case TYPE_DOUBLE:
+                return "double";
+            default:
+                return "string";
+        }
+    }
+
+    /**
+     * write the column of the type only, the other typed columns of the key keep their value.
+     * value is in its cached form, the decrypted string for a secure key. a secure write also drops the legacy row
+     * of the key, it would be migrated over the new value otherwise
+     */
+    private static boolean upsertLookup(String key, boolean isSecureEnabled, char type, Object value){
+        if(!isSecureEnabled){
+            return sqLiteWrapper.upsertColumn(LOOKUP_TABLE, KEY_COLUMN, key, getColumnName(type), value);
+        }
+
+        if(!sqLiteWrapper.upsertColumn(LOOKUP_TABLE, KEY_COLUMN, indexKey(key), getColumnName(TYPE_STRING),
+                encryptValue((String) value))){
+            return false;
+        }
+        deleteLegacyLookup(key);
+        return true;
+    }
+
+    private static void deleteLookup(String key, boolean isSecureEnabled){
+        if(isSecureEnabled){
+            sqLiteWrapper.delete(null, SQLiteWrapper.TLookup.class, KEY_COLUMN + "=?", new String[]{indexKey(key)});
+            deleteLegacyLookup(key);
         } else {
-            lookup = new SQLiteWrapper.TLookup();
-            lookup.setKey(key);
-            if(isSecureEnabled){
-                lookup.setString(encrypt(Double.toString(value)));
+            sqLiteWrapper.delete(null, SQLiteWrapper.TLookup.class, KEY_COLUMN + "=?", new String[]{key});
+        }
+    }
+
+    private static void deleteLegacyLookup(String key){
+        String legacyKey = legacyEncrypt(key);
+        if(!TextUtils.isEmpty(legacyKey)) {
+            sqLiteWrapper.delete(null, SQLiteWrapper.TLookup.class, KEY_COLUMN + "=?", new String[]{legacyKey});
+        }
+    }
+
+    /**
+     * move secure entries written by older versions to the hmac indexed format, they are otherwise moved on first read.
+     * legacy keys can only be matched by their plain key, so the keys have to be given
+     * @return count of migrated entries
+     */
+    public static int migrateSecureKeys(String... keys){
+        checkCondition();
+        checkSecureCondition();
+        if(keys == null){
+            return 0;
+        }
+
+        int migratedCount = 0;
+        for(int start = 0; start < keys.length; start += PRELOAD_CHUNK_SIZE){
+            migratedCount += migrateLegacyLookup(Arrays.copyOfRange(keys, start, Math.min(keys.length, start + PRELOAD_CHUNK_SIZE))).size();
+        }
+        return migratedCount;
+    }
+
+    //rewrite the legacy rows of the given keys in the current format, returns the decrypted value per migrated key
+    private static Map<String, String> migrateLegacyLookup(String[] keys){
+        final Map<String, String> valueMap = new HashMap<String, String>();
+        synchronized (writeLock) {
+            Map<String, String> keyMap = new HashMap<String, String>();
+            List<String> legacyKeyList = new ArrayList<String>();
+            List<String> placeholderList = new ArrayList<String>();
+            for(String key : keys){
+                String legacyKey = legacyEncrypt(key);
+                if(!TextUtils.isEmpty(legacyKey)){
+                    keyMap.put(legacyKey, key);
+                    legacyKeyList.add(legacyKey);
+                    placeholderList.add("?");
+                }
+            }
+            if(legacyKeyList.isEmpty()){
+                return valueMap;
+            }
+
+            List<SQLiteWrapper.TLookup> lookupList = sqLiteWrapper.findAllWithCriteria(null, SQLiteWrapper.TLookup.class,
+                    KEY_COLUMN + " IN (" + TextUtils.join(",", placeholderList) + ")",
+                    legacyKeyList.toArray(new String[legacyKeyList.size()]));
+            if(lookupList == null || lookupList.isEmpty()){
+                return valueMap;
+            }
+            for(SQLiteWrapper.TLookup lookup : lookupList){
+                String key = keyMap.get(lookup.getKey());
+                if(key != null){
+                    valueMap.put(key, legacyDecrypt(lookup.getString()));
+                }
+            }
+
+            sqLiteWrapper.inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (Map.Entry<String, String> entry : valueMap.entrySet()) {
+                        upsertLookup(entry.getKey(), true, TYPE_STRING, entry.getValue());
+                    }
+                    return null;
+                }
+            });
+        }
+        return valueMap;
+    }
+
+
+
+    //apply
+    /**
+     * block until every applied write made before this call is committed
+     */
+    public static void flush(){
+        checkCondition();
+        Future<?> future = getApplyExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                flushPending();
+            }
+        });
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Lookup flush failed", e.getCause());
+        }
+    }
+
+    /**
+     * delay before the writer commits applied writes, writes arriving in between share one transaction
+     */
+    public static void setApplyFlushDelay(long delayMillis){
+        applyFlushDelayMillis = delayMillis;
+    }
+
+    public static int getPendingWriteCount(){
+        synchronized (pendingMap) {
+            return pendingMap.size();
+        }
+    }
+
+    private static void applyWrite(String key, boolean isSecureEnabled, char type, Object value){
+        applyWrite(key, isSecureEnabled, type, value, false);
+    }
+
+    //the write is visible to readers at once, only persisting it is deferred
+    private static void applyWrite(String key, boolean isSecureEnabled, char type, Object value, boolean isRemove){
+        checkCondition();
+        boolean isFlushNeeded;
+        synchronized (pendingMap) {
+            //a remove replaces the earlier writes of the key, a value is merged into them
+            String pendingKey = PendingWrite.getPendingKey(key, isSecureEnabled);
+            PendingWrite pendingWrite = pendingMap.remove(pendingKey);
+            if(isRemove || pendingWrite == null){
+                pendingWrite = new PendingWrite(key, isSecureEnabled, isRemove, new LinkedHashMap<Character, Object>());
+            }
+            if(!isRemove){
+                pendingWrite = pendingWrite.with(type, value);
+            }
+            pendingMap.put(pendingKey, pendingWrite);
+            if(isRemove){
+                cacheRemoved(key, isSecureEnabled);
             } else {
-                lookup.setDouble(value);
+                cacheWritten(key, isSecureEnabled, type, value);
             }
-            lookup.save();
+            isFlushNeeded = !isApplyFlushScheduled;
+            isApplyFlushScheduled = true;
+        }
+
+        if(isFlushNeeded) {
+            getApplyExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushPending();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Lookup apply failed, writes stay pending until the next flush:", e);
+                    }
+                }
+            }, applyFlushDelayMillis, TimeUnit.MILLISECONDS);
         }
     }
 
+    private static PendingWrite getPending(String key, boolean isSecureEnabled){
+        synchronized (pendingMap) {
+            return pendingMap.isEmpty() ? null : pendingMap.get(PendingWrite.getPendingKey(key, isSecureEnabled));
+        }
+    }
 
+    private static void dropPending(String key, boolean isSecureEnabled){
+        takePending(key, isSecureEnabled);
+    }
 
-    public static void remove(String key){
-        remove(key, false);
+    private static PendingWrite takePending(String key, boolean isSecureEnabled){
+        synchronized (pendingMap) {
+            return pendingMap.isEmpty() ? null : pendingMap.remove(PendingWrite.getPendingKey(key, isSecureEnabled));
+        }
     }
 
-    public static void removeS(String key){
-        remove(key, true);
+    //put back a taken write that could not be committed, unless the key was applied again meanwhile
+    private static void restorePending(PendingWrite pendingWrite){
+        synchronized (pendingMap) {
+            if(!pendingMap.containsKey(pendingWrite.pendingKey)){
+                pendingMap.put(pendingWrite.pendingKey, pendingWrite);
+            }
+        }
     }
 
-    private static void remove(String key, boolean isSecureEnabled){
+    //caller must hold writeLock, return false when a value could not be written
+    private static boolean executePending(PendingWrite pendingWrite){
+        if(pendingWrite.isRemove){
+            deleteLookup(pendingWrite.key, pendingWrite.isSecureEnabled);
+        }
+        for (Map.Entry<Character, Object> entry : pendingWrite.valueMap.entrySet()) {
+            if(!upsertLookup(pendingWrite.key, pendingWrite.isSecureEnabled, entry.getKey(), entry.getValue())){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //runs on the apply thread, direct writes wait for the batch so they are never overwritten by it
+    private static void flushPending(){
+        synchronized (writeLock) {
+            final List<PendingWrite> batch;
+            synchronized (pendingMap) {
+                isApplyFlushScheduled = false;
+                if (pendingMap.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<PendingWrite>(pendingMap.values());
+            }
+
+            //a failed entry is not written but does not fail the others, it stays pending with its cached value
+            final List<PendingWrite> failedList = new ArrayList<PendingWrite>();
+            sqLiteWrapper.inTransaction(SQLiteWrapper.TransactionMode.IMMEDIATE, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (PendingWrite pendingWrite : batch) {
+                        if (!executePending(pendingWrite)) {
+                            failedList.add(pendingWrite);
+                        }
+                    }
+                    return null;
+                }
+            });
+
+            //committed, writes applied meanwhile and failed ones stay pending
+            synchronized (pendingMap) {
+                for (PendingWrite pendingWrite : batch) {
+                    if (pendingMap.get(pendingWrite.pendingKey) == pendingWrite && !failedList.contains(pendingWrite)) {
+                        pendingMap.remove(pendingWrite.pendingKey);
+                    }
+                }
+            }
+
+            if (!failedList.isEmpty()) {
+                throw new SQLException("Lookup apply could not write " + failedList.size() + " entries, they stay pending");
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getApplyExecutor(){
+        if(applyExecutor == null){
+            applyExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Lookup-apply");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return applyExecutor;
+    }
+
+
+
+    //cache
+    /**
+     * bound the decoded value cache, zero for either limit disables it
+     */
+    public static void setCacheLimits(int maxEntries, long maxBytes){
+        valueCache.setLimits(maxEntries, maxBytes);
+    }
+
+    public static void clearCache(){
+        valueCache.clear();
+    }
+
+    public static long getCacheHitCount(){
+        return valueCache.getHitCount();
+    }
+
+    public static long getCacheMissCount(){
+        return valueCache.getMissCount();
+    }
+
+    /**
+     * read the given keys with one query per chunk so later reads of them are served by the cache
+     */
+    public static void preloadCache(String... keys){
+        preloadCache(keys, false);
+    }
+
+    public static void preloadCacheS(String... keys){
+        preloadCache(keys, true);
+    }
+
+    private static void preloadCache(String[] keys, boolean isSecureEnabled){
         checkCondition();
         if(isSecureEnabled){
             checkSecureCondition();
-            key = encrypt(key);
         }
-        SQLiteWrapper.TLookup lookup = sqLiteWrapper.findFirstWithCriteria(null, SQLiteWrapper.TLookup.class,
-                "key=?", new String[]{key});
-        if(lookup != null){
-            lookup.delete();
+        if(keys == null){
+            return;
+        }
+
+        for(int start = 0; start < keys.length; start += PRELOAD_CHUNK_SIZE){
+            int end = Math.min(keys.length, start + PRELOAD_CHUNK_SIZE);
+            long stamp = valueCache.getStamp();
+            Map<String, String> keyMap = new HashMap<String, String>();
+            String[] storedKeys = new String[end - start];
+            String[] placeholders = new String[end - start];
+            for(int i = start; i < end; i++){
+                storedKeys[i - start] = isSecureEnabled ? indexKey(keys[i]) : keys[i];
+                placeholders[i - start] = "?";
+                keyMap.put(storedKeys[i - start], keys[i]);
+            }
+
+            List<SQLiteWrapper.TLookup> lookupList = sqLiteWrapper.findAllWithCriteria(null, SQLiteWrapper.TLookup.class,
+                    KEY_COLUMN + " IN (" + TextUtils.join(",", placeholders) + ")", storedKeys);
+            if(lookupList == null){
+                continue;
+            }
+
+            for(SQLiteWrapper.TLookup lookup : lookupList){
+                String key = keyMap.remove(lookup.getKey());
+                if(key == null){
+                    continue;
+                }
+                if(isSecureEnabled){
+                    valueCache.putLoaded(SECURE_CACHE_PREFIX + key, decryptValue(lookup.getString()), stamp);
+                } else {
+                    valueCache.putLoaded(plainCacheKey(TYPE_STRING, key), lookup.getString(), stamp);
+                    valueCache.putLoaded(plainCacheKey(TYPE_BOOLEAN, key), lookup.getBoolean(), stamp);
+                    valueCache.putLoaded(plainCacheKey(TYPE_INT, key), lookup.getInt(), stamp);
+                    valueCache.putLoaded(plainCacheKey(TYPE_LONG, key), lookup.getLong(), stamp);
+                    valueCache.putLoaded(plainCacheKey(TYPE_FLOAT, key), lookup.getFloat(), stamp);
+                    valueCache.putLoaded(plainCacheKey(TYPE_DOUBLE, key), lookup.getDouble(), stamp);
+                }
+            }
+
+            //secure keys not found may still be stored in the legacy format
+            if(isSecureEnabled && !keyMap.isEmpty()){
+                Map<String, String> migratedMap = migrateLegacyLookup(keyMap.values().toArray(new String[keyMap.size()]));
+                for(Map.Entry<String, String> entry : migratedMap.entrySet()){
+                    keyMap.remove(indexKey(entry.getKey()));
+                    valueCache.putLoaded(SECURE_CACHE_PREFIX + entry.getKey(), entry.getValue(), stamp);
+                }
+            }
+
+            //whatever is left in the map does not exist
+            for(String key : keyMap.values()){
+                if(isSecureEnabled){
+                    valueCache.putLoaded(SECURE_CACHE_PREFIX + key, ABSENT, stamp);
+                } else {
+                    for(char type : PLAIN_CACHE_TYPES){
+                        valueCache.putLoaded(plainCacheKey(type, key), ABSENT, stamp);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String plainCacheKey(char type, String key){
+        return type + ":" + key;
+    }
+
+    //value of a plain key as the given type, ABSENT when there is no such key
+    private static Object readPlain(char type, String key){
+        //a pending write of other types leaves this column as it is stored
+        PendingWrite pendingWrite = getPending(key, false);
+        if(pendingWrite != null && pendingWrite.hasValue(type)){
+            return pendingWrite.getValue(type);
+        }
+
+        String cacheKey = plainCacheKey(type, key);
+        CacheEntry entry = valueCache.get(cacheKey);
+        if(entry != null){
+            return entry.value;
+        }
+
+        long stamp = valueCache.getStamp();
+        Object value;
+        try {
+            value = queryPlain(type, key);
+        } catch (SQLiteDoneException e){
+            value = ABSENT;
+        }
+        valueCache.putLoaded(cacheKey, value, stamp);
+        return value;
+    }
+
+    private static Object queryPlain(char type, String key){
+        switch (type){
+            case TYPE_BOOLEAN:
+                return sqLiteWrapper.simpleQueryForLong(SELECT_BOOLEAN_SQL, key) == 1;
+            case TYPE_INT:
+                return (int) sqLiteWrapper.simpleQueryForLong(SELECT_INTEGER_SQL, key);
+            case TYPE_LONG:
+                return sqLiteWrapper.simpleQueryForLong(SELECT_LONG_SQL, key);
+            case TYPE_FLOAT:
+                return (float) sqLiteWrapper.simpleQueryForDouble(SELECT_FLOAT_SQL, key);
+            case TYPE_DOUBLE:
+                return sqLiteWrapper.simpleQueryForDouble(SELECT_DOUBLE_SQL, key);
+            default:
+                return sqLiteWrapper.simpleQueryForString(SELECT_STRING_SQL, key);
+        }
+    }
+
+    //decrypted value of a secure key, ABSENT when there is no such key
+    private static Object readSecure(String key){
+        PendingWrite pendingWrite = getPending(key, true);
+        if(pendingWrite != null && pendingWrite.hasValue(TYPE_STRING)){
+            return pendingWrite.getValue(TYPE_STRING);
+        }
+
+        String cacheKey = SECURE_CACHE_PREFIX + key;
+        CacheEntry entry = valueCache.get(cacheKey);
+        if(entry != null){
+            return entry.value;
+        }
+
+        long stamp = valueCache.getStamp();
+        Object value;
+        try {
+            value = decryptValue(sqLiteWrapper.simpleQueryForString(SELECT_STRING_SQL, indexKey(key)));
+        } catch (SQLiteDoneException e){
+            Map<String, String> migratedMap = migrateLegacyLookup(new String[]{key});
+            value = migratedMap.containsKey(key) ? migratedMap.get(key) : ABSENT;
+        }
+        valueCache.putLoaded(cacheKey, value, stamp);
+        return value;
+    }
+
+    private static void cacheWritten(String key, boolean isSecureEnabled, char type, Object value){
+        if(isSecureEnabled){
+            valueCache.put(SECURE_CACHE_PREFIX + key, value);
+            return;
+        }
+
+        //other typed columns keep their value, but a key that was absent now exists with NULL in them
+        for(char cacheType : PLAIN_CACHE_TYPES){
+            if(cacheType != type){
+                valueCache.removeAbsent(plainCacheKey(cacheType, key));
+            }
+        }
+        valueCache.put(plainCacheKey(type, key), value);
+    }
+
+    private static void cacheRemoved(String key, boolean isSecureEnabled){
+        if(isSecureEnabled){
+            valueCache.put(SECURE_CACHE_PREFIX + key, ABSENT);
+            return;
+        }
+
+        for(char type : PLAIN_CACHE_TYPES){
+            valueCache.put(plainCacheKey(type, key), ABSENT);
+        }
+    }
+
+    private static void cacheInvalidate(String key, boolean isSecureEnabled){
+        if(isSecureEnabled){
+            valueCache.remove(SECURE_CACHE_PREFIX + key);
+            return;
+        }
+
+        for(char type : PLAIN_CACHE_TYPES){
+            valueCache.remove(plainCacheKey(type, key));
         }
     }
 
@@ -626,5 +1403,208 @@ public class Lookup {
     }
 
 
+    private static final class CipherHolder {
+        private final SecretKeySpec keySpec;
+        private final Cipher cipher;
+
+        private CipherHolder(SecretKeySpec keySpec, Cipher cipher) {
+            this.keySpec = keySpec;
+            this.cipher = cipher;
+        }
+    }
+
+    private static final class MacHolder {
+        private final SecretKeySpec keySpec;
+        private final Mac mac;
+
+        private MacHolder(SecretKeySpec keySpec, Mac mac) {
+            this.keySpec = keySpec;
+            this.mac = mac;
+        }
+    }
+
+    static final class CacheEntry {
+        final Object value;
+        private final int size;
+
+        private CacheEntry(Object value, int size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * lru map of decoded values bounded by entry count and estimated bytes, package-private for the tests
+     */
+    static final class ValueCache {
+        private final LinkedHashMap<String, CacheEntry> entryMap = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+        private int maxEntries;
+        private long maxBytes;
+        private long byteCount;
+        private long hitCount;
+        private long missCount;
+        //bumped by every write, a load that raced with a write is not cached
+        private long stamp;
+
+        ValueCache(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized CacheEntry get(String cacheKey){
+            CacheEntry entry = entryMap.get(cacheKey);
+            if(entry == null){
+                missCount++;
+            } else {
+                hitCount++;
+            }
+            return entry;
+        }
+
+        synchronized boolean contains(String cacheKey){
+            return entryMap.containsKey(cacheKey);
+        }
+
+        synchronized long getStamp(){
+            return stamp;
+        }
+
+        synchronized void putLoaded(String cacheKey, Object value, long loadStamp){
+            if(loadStamp == stamp){
+                putEntry(cacheKey, value);
+            }
+        }
+
+        synchronized void put(String cacheKey, Object value){
+            stamp++;
+            putEntry(cacheKey, value);
+        }
+
+        synchronized void remove(String cacheKey){
+            stamp++;
+            CacheEntry entry = entryMap.remove(cacheKey);
+            if(entry != null){
+                byteCount -= entry.size;
+            }
+        }
+
+        synchronized void removeAbsent(String cacheKey){
+            CacheEntry entry = entryMap.get(cacheKey);
+            if(entry != null && entry.value == ABSENT){
+                remove(cacheKey);
+            }
+        }
+
+        synchronized void clear(){
+            stamp++;
+            entryMap.clear();
+            byteCount = 0;
+        }
+
+        synchronized void setLimits(int maxEntries, long maxBytes){
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            trim();
+        }
+
+        synchronized long getHitCount(){
+            return hitCount;
+        }
+
+        synchronized long getMissCount(){
+            return missCount;
+        }
+
+        private void putEntry(String cacheKey, Object value){
+            if(maxEntries <= 0 || maxBytes <= 0){
+                return;
+            }
+
+            CacheEntry entry = new CacheEntry(value, estimateSize(cacheKey, value));
+            CacheEntry oldEntry = entryMap.put(cacheKey, entry);
+            if(oldEntry != null){
+                byteCount -= oldEntry.size;
+            }
+            byteCount += entry.size;
+            trim();
+        }
+
+        //eldest entries come first in an access ordered map
+        private void trim(){
+            Iterator<CacheEntry> iterator = entryMap.values().iterator();
+            while ((entryMap.size() > maxEntries || byteCount > maxBytes) && iterator.hasNext()){
+                byteCount -= iterator.next().size;
+                iterator.remove();
+            }
+        }
+
+        //rough retained size, object headers plus two bytes per char
+        private static int estimateSize(String cacheKey, Object value){
+            int size = 64 + cacheKey.length() * 2;
+            if(value instanceof String){
+                size += ((String) value).length() * 2;
+            }
+            return size;
+        }
+    }
+
+    private static final class PendingWrite {
+        private final String pendingKey;
+        private final String key;
+        private final boolean isSecureEnabled;
+        //the row is deleted before the values are written
+        private final boolean isRemove;
+        //value per type in its cached form, a secure key only has a string
+        private final Map<Character, Object> valueMap;
+
+        private PendingWrite(String key, boolean isSecureEnabled, boolean isRemove, Map<Character, Object> valueMap) {
+            this.pendingKey = getPendingKey(key, isSecureEnabled);
+            this.key = key;
+            this.isSecureEnabled = isSecureEnabled;
+            this.isRemove = isRemove;
+            this.valueMap = valueMap;
+        }
+
+        private static String getPendingKey(String key, boolean isSecureEnabled){
+            return (isSecureEnabled ? SECURE_CACHE_PREFIX : "p:") + key;
+        }
+
+        //new write holding this one plus the value, a write taken by a running flush is never changed
+        private PendingWrite with(char type, Object value){
+            Map<Character, Object> newValueMap = new LinkedHashMap<Character, Object>(valueMap);
+            newValueMap.put(type, value);
+            return new PendingWrite(key, isSecureEnabled, isRemove, newValueMap);
+        }
+
+        //false when a read of the type has to look at the stored row
+        private boolean hasValue(char readType){
+            return isRemove || valueMap.containsKey(readType);
+        }
+
+        //what a read of the given type returns once this write is committed,
+        //a removed key written again has NULL in the columns that were not written
+        private Object getValue(char readType){
+            if(valueMap.containsKey(readType)){
+                return valueMap.get(readType);
+            }
+            if(valueMap.isEmpty()){
+                return ABSENT;
+            }
+            switch (readType){
+                case TYPE_BOOLEAN:
+                    return false;
+                case TYPE_INT:
+                    return 0;
+                case TYPE_LONG:
+                    return 0L;
+                case TYPE_FLOAT:
+                    return 0f;
+                case TYPE_DOUBLE:
+                    return 0d;
+                default:
+                    return null;
+            }
+        }
+    }
 
 }
@@ -7,22 +7,48 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Build;
+import android.os.CancellationSignal;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -36,12 +62,52 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
     public static final String DELETED_AT = "_deleted_at";
     private static final String TAG = SQLiteWrapper.class.getName();
     public static final String SQLW_FOLDER = "SQLW/";
+    public static final int DEFAULT_BATCH_CHUNK_SIZE = 500;
+    public static final int DEFAULT_LAZY_WINDOW_SIZE = 100;
+    public static final int DEFAULT_FOREACH_CHUNK_SIZE = 1000;
+    public static final int DEFAULT_BLOB_CHUNK_SIZE = 256 * 1024;
+    //staging table of writeBlob, created on demand in the temp schema
+    private static final String BLOB_CHUNK_TABLE = "sqlw_blob_chunk";
+    public static final int DEFAULT_ASYNC_READ_THREAD_COUNT = 2;
+    //sqlite 3.24.0 added INSERT ... ON CONFLICT DO UPDATE, 3.35.0 added RETURNING
+    private static final int SQLITE_VERSION_UPSERT = 3024000;
+    private static final int SQLITE_VERSION_RETURNING = 3035000;
+    //keep IN (...) under the sqlite host parameter limit of 999
+    private static final int PARENT_QUERY_CHUNK_SIZE = 500;
+    //dirty column sets are up to 2^n per table, only the most recently used statements are kept
+    private static final int DIRTY_STATEMENT_CACHE_SIZE = 32;
     private Map<String, Table> tableMap;
     private List<Index> indexList;
     private AssetManager assetManager;
+    private Map<String, CursorShape> cursorShapeMap = new ConcurrentHashMap<>();
+    private Map<String, SQLiteStatement> statementMap = new ConcurrentHashMap<>();
+    //one statement per set of dirty columns, least recently used one is closed when the cache is full
+    private final Map<String, SQLiteStatement> dirtyStatementMap = new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if(size() > DIRTY_STATEMENT_CACHE_SIZE){
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+    private int batchChunkSize = DEFAULT_BATCH_CHUNK_SIZE;
+    private ExecutorService prefetchExecutor;
+    private int sqliteVersionCode = -1;
+    private final ThreadLocal<TransactionContext> transactionContext = new ThreadLocal<>();
+    private volatile boolean isLookupIndexVerified = false;
+    private GroupCommitWriter groupCommitWriter;
+    private ExecutorService asyncReadExecutor;
+    private ExecutorService asyncWriteExecutor;
+    private boolean isAsyncExecutorOwned;
+    private Database databaseConfig;
+    private volatile Map<String, Long> effectiveTuningMap = Collections.emptyMap();
+    private volatile long requestedMmapSize = -1;
 
     private static Map<String, Database> sqLiteDatabaseMap = new HashMap<>();
     private static Map<String, SQLiteWrapper> sqLiteWrapperMap = new HashMap<>();
+    private static Map<Class, Factory> factoryMap = new ConcurrentHashMap<>();
 
     public static void addDatabase(Database database){
         //invoke this inside Application.onCreate
@@ -73,6 +139,39 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         public abstract String getDatabaseName();
         public abstract int getDatabaseVersion();
         public abstract void configure(SQLiteWrapper sqLiteWrapper);
+
+        //write-ahead logging, reads outside a transaction use the pooled read connections while a write is in progress.
+        //off by default as before, turning it on adds -wal and -shm files next to the database
+        public boolean isWriteAheadLoggingEnabled(){
+            return false;
+        }
+
+        //number of readers run at the same time by async(), 0 is DEFAULT_ASYNC_READ_THREAD_COUNT.
+        //size of the platform pool itself is decided by the system when WAL is enabled
+        public int getConnectionPoolSize(){
+            return 0;
+        }
+
+        //null keeps the platform default
+        public SynchronousMode getSynchronousMode(){
+            return null;
+        }
+
+        //maximum bytes left in the journal/WAL file after a checkpoint, negative keeps the default
+        public long getJournalSizeLimit(){
+            return -1;
+        }
+
+        //number of WAL pages that trigger an automatic checkpoint, negative keeps the default
+        public int getWalAutoCheckpoint(){
+            return -1;
+        }
+
+        //pragmas applied every time the database is opened, null keeps the platform default
+        public TuningProfile getTuningProfile(){
+            return null;
+        }
+
         private SQLiteWrapper getSQLiteWrapper(){
             if(sqLiteWrapperMap.containsKey(getDatabaseName())){
                 return sqLiteWrapperMap.get(getDatabaseName());
@@ -81,6 +180,7 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
                 SQLiteWrapper sqLiteWrapper = new Builder()
                         .setDatabaseName(getDatabaseName())
                         .setDatabaseVersion(getDatabaseVersion())
+                        .setDatabaseConfig(this)
                         .create(getContext().getApplicationContext());
                 configure(sqLiteWrapper);
                 sqLiteWrapper.init();
@@ -106,6 +206,19 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         return this;
     }
 
+    //number of rows written per transaction by saveAll, updateAll and deleteByIds
+    public SQLiteWrapper setBatchChunkSize(int batchChunkSize){
+        if(batchChunkSize <= 0){
+            throw new IllegalArgumentException("batch chunk size must be greater than 0");
+        }
+        this.batchChunkSize = batchChunkSize;
+        return this;
+    }
+
+    public int getBatchChunkSize() {
+        return batchChunkSize;
+    }
+
     public static SQLiteWrapper of(String databaseName){
         if(sqLiteDatabaseMap.containsKey(databaseName)){
             return sqLiteDatabaseMap.get(databaseName).getSQLiteWrapper();
@@ -117,16 +230,45 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
     }
 
     private void release(){
+        disableGroupCommit();
+        for (SQLiteStatement statement : statementMap.values()){
+            statement.close();
+        }
+        statementMap.clear();
+        synchronized (dirtyStatementMap) {
+            for (SQLiteStatement statement : dirtyStatementMap.values()){
+                statement.close();
+            }
+            dirtyStatementMap.clear();
+        }
+        if(prefetchExecutor != null){
+            prefetchExecutor.shutdown();
+            prefetchExecutor = null;
+        }
+        synchronized (this) {
+            if(isAsyncExecutorOwned && asyncReadExecutor != null){
+                asyncReadExecutor.shutdown();
+                asyncWriteExecutor.shutdown();
+            }
+            asyncReadExecutor = null;
+            asyncWriteExecutor = null;
+        }
         close();
         tableMap = null;
         indexList = null;
+        cursorShapeMap.clear();
     }
 
-    private SQLiteWrapper(Context context, String databaseName, int databaseVersion, Map<String, Table> tableMap, List<Index> indexList){
+    private SQLiteWrapper(Context context, String databaseName, int databaseVersion, Map<String, Table> tableMap, List<Index> indexList,
+                          Database databaseConfig){
         super(context, databaseName, null, databaseVersion);
         this.assetManager = context.getAssets();
         this.tableMap = tableMap;
         this.indexList = indexList;
+        this.databaseConfig = databaseConfig;
+        if(databaseConfig != null){
+            setWriteAheadLoggingEnabled(databaseConfig.isWriteAheadLoggingEnabled());
+        }
     }
 
     @Override
@@ -250,6 +392,137 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
             db.setForeignKeyConstraintsEnabled(true);
         }
+
+        //pragmas below apply to the primary connection, the one that does every write and checkpoint
+        if(databaseConfig != null){
+            if(databaseConfig.getSynchronousMode() != null){
+                db.execSQL("PRAGMA synchronous=" + databaseConfig.getSynchronousMode().name());
+            }
+            //pragmas that return a row can not run through execSQL
+            if(databaseConfig.getJournalSizeLimit() >= 0){
+                DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit=" + databaseConfig.getJournalSizeLimit(), null);
+            }
+            if(databaseConfig.getWalAutoCheckpoint() >= 0){
+                DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + databaseConfig.getWalAutoCheckpoint(), null);
+            }
+            if(databaseConfig.getTuningProfile() != null){
+                applyTuningProfile(db, databaseConfig.getTuningProfile());
+            }
+        }
+    }
+
+    private void applyTuningProfile(SQLiteDatabase db, TuningProfile tuningProfile){
+        if(tuningProfile.pageSize > 0){
+            applyPageSize(db, tuningProfile.pageSize);
+        }
+        if(tuningProfile.cacheSizeKiB > 0){
+            //negative value is size in KiB instead of pages
+            db.execSQL("PRAGMA cache_size=-" + tuningProfile.cacheSizeKiB);
+        }
+        applyMmapSize(db, tuningProfile);
+        if(tuningProfile.isTempStoreInMemory){
+            db.execSQL("PRAGMA temp_store=MEMORY");
+        }
+        if(tuningProfile.busyTimeoutMillis >= 0){
+            queryPragma(db, "busy_timeout=" + tuningProfile.busyTimeoutMillis);
+        }
+
+        Map<String, Long> tuningMap = new LinkedHashMap<>();
+        for (String pragma : new String[]{"page_size", "cache_size", "mmap_size", "temp_store", "busy_timeout"}){
+            tuningMap.put(pragma, queryPragma(db, pragma));
+        }
+        effectiveTuningMap = Collections.unmodifiableMap(tuningMap);
+
+        Long effectiveMmapSize = tuningMap.get("mmap_size");
+        if(requestedMmapSize > 0 && (effectiveMmapSize == null || effectiveMmapSize == 0)){
+            Log.w(TAG, "Memory mapped I/O is disabled by this platform, reads use the read() path");
+        }
+    }
+
+    //fixed size, or size of the database file times the factor capped by the maximum
+    private void applyMmapSize(SQLiteDatabase db, TuningProfile tuningProfile){
+        long mmapSize = tuningProfile.mmapSize;
+        if(tuningProfile.mmapFileSizeFactor > 0){
+            long fileBytes = getDatabaseFileBytes(db);
+            mmapSize = Math.min((long) (fileBytes * tuningProfile.mmapFileSizeFactor), tuningProfile.maxMmapSize);
+        }
+        if(mmapSize >= 0){
+            queryPragma(db, "mmap_size=" + mmapSize);
+        }
+        requestedMmapSize = mmapSize;
+    }
+
+    private static long getDatabaseFileBytes(SQLiteDatabase db){
+        String path = db.getPath();
+        if(path == null || ":memory:".equals(path)) return 0;
+        return new File(path).length();
+    }
+
+    /**
+     * size memory map again from the current file size, useful after a bulk import into a read mostly database.
+     * only used when the tuning profile sets setMmapSizeRelativeToFile
+     */
+    public MemoryMapStats refreshMemoryMap(){
+        final SQLiteDatabase database = getDatabase(false);
+        if(databaseConfig != null && databaseConfig.getTuningProfile() != null){
+            final TuningProfile tuningProfile = databaseConfig.getTuningProfile();
+            //transaction keeps the pragma on the primary connection
+            inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    applyMmapSize(database, tuningProfile);
+                    Map<String, Long> tuningMap = new LinkedHashMap<>(effectiveTuningMap);
+                    tuningMap.put("mmap_size", queryPragma(database, "mmap_size"));
+                    effectiveTuningMap = Collections.unmodifiableMap(tuningMap);
+                    return null;
+                }
+            });
+        }
+        return getMemoryMapStats();
+    }
+
+    /**
+     * sqlite has no per read counter, so this reports how much of the file the map covers:
+     * pages inside the mapped bytes are read from the map, the rest through read()
+     */
+    public MemoryMapStats getMemoryMapStats(){
+        SQLiteDatabase database = getDatabase(false);
+        Long effectiveMmapSize = effectiveTuningMap.get("mmap_size");
+        return new MemoryMapStats(requestedMmapSize, effectiveMmapSize == null ? 0 : effectiveMmapSize,
+                getDatabaseFileBytes(database));
+    }
+
+    //page size is fixed once the database has pages and can not change in WAL mode, so only new database is set
+    private void applyPageSize(SQLiteDatabase db, int pageSize){
+        if(db.getVersion() != 0 || DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) > 0) return;
+
+        boolean isWal = "wal".equalsIgnoreCase(DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        if(isWal){
+            DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode=DELETE", null);
+        }
+        db.execSQL("PRAGMA page_size=" + pageSize);
+        if(isWal){
+            //switching back writes the header with the new page size
+            DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode=WAL", null);
+        }
+    }
+
+    //null when the pragma is not known by this sqlite version
+    private static Long queryPragma(SQLiteDatabase db, String pragma){
+        try {
+            return DatabaseUtils.longForQuery(db, "PRAGMA " + pragma, null);
+        } catch (SQLException e){
+            return null;
+        }
+    }
+
+    /**
+     * values of page_size, cache_size, mmap_size, temp_store and busy_timeout read back after the tuning profile
+     * is applied, empty when the database has no tuning profile
+     */
+    public Map<String, Long> getEffectiveTuning(){
+        getDatabase(false);
+        return effectiveTuningMap;
     }
 
     @Override
@@ -343,336 +616,1987 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
 
 
 
-    private ContentValues getContentValues(Table table, List<Object> dataList){
-        ContentValues contentValues = new ContentValues();
+    private void bindObjectData(SQLiteStatement statement, Table table, List<Object> dataList){
         List<Field> fieldList = table.getFieldList();
         //List<ForeignKey> foreignKeyList = table.getForeignKeyList();
 
         for (int i = 0; i < fieldList.size(); i++) {
-            Field field = fieldList.get(i);
-
-            Object data = dataList.get(i);
-
-            if(data == null)continue;
+            bindFieldValue(statement, i + 1, fieldList.get(i), dataList.get(i));
+        }
+    }
 
-            switch (field.getType()) {
-                case Field.TEXT:
-                    contentValues.put(field.getName(), (String) data);
-                    break;
-                case Field.INTEGER:
-                    if (field.getTrueType() == int.class || field.getTrueType() == Integer.class) {
-                        contentValues.put(field.getName(), (Integer) data);
-                    } else if (field.getTrueType() == long.class || field.getTrueType() == Long.class) {
-                        if(data instanceof TableClass){
-                            contentValues.put(field.getName(), ((TableClass)data)._id);
+    private void bindFieldValue(SQLiteStatement statement, int bindIndex, Field field, Object data){
+        if(data == null){
+            statement.bindNull(bindIndex);
+            return;
+        }
+
+        switch (field.getType()) {
+            case Field.TEXT:
+                statement.bindString(bindIndex, (String) data);
+                break;
+            case Field.INTEGER:
+                if (field.getTrueType() == int.class || field.getTrueType() == Integer.class) {
+                    statement.bindLong(bindIndex, (Integer) data);
+                } else if (field.getTrueType() == long.class || field.getTrueType() == Long.class) {
+                    if(data instanceof TableClass){
+                        Long parentId = ((TableClass)data)._id;
+                        if(parentId == null){
+                            statement.bindNull(bindIndex);
                         } else {
-                            contentValues.put(field.getName(), (Long) data);
+                            statement.bindLong(bindIndex, parentId);
                         }
-                    } else if (field.getTrueType() == boolean.class || field.getTrueType() == Boolean.class) {
-                        contentValues.put(field.getName(), (Boolean) data);
-                    } else if (field.getTrueType() == Date.class) {
-                        contentValues.put(field.getName(), ((Date) data).getTime());
-                    }
-                    break;
-                case Field.REAL:
-                    if (field.getTrueType() == float.class || field.getTrueType() == Float.class) {
-                        contentValues.put(field.getName(), (Float) data);
-                    } else if (field.getTrueType() == double.class || field.getTrueType() == Double.class) {
-                        contentValues.put(field.getName(), (Double) data);
+                    } else {
+                        statement.bindLong(bindIndex, (Long) data);
                     }
-                    break;
-                case Field.BLOB:
-                    //TODO:
-                    //contentValues.put(field.getName(), (String) objectList.of(i));
-                    break;
-            }
+                } else if (field.getTrueType() == boolean.class || field.getTrueType() == Boolean.class) {
+                    statement.bindLong(bindIndex, ((Boolean) data) ? 1 : 0);
+                } else if (field.getTrueType() == Date.class) {
+                    statement.bindLong(bindIndex, ((Date) data).getTime());
+                }
+                break;
+            case Field.REAL:
+                if (field.getTrueType() == float.class || field.getTrueType() == Float.class) {
+                    statement.bindDouble(bindIndex, (Float) data);
+                } else if (field.getTrueType() == double.class || field.getTrueType() == Double.class) {
+                    statement.bindDouble(bindIndex, (Double) data);
+                }
+                break;
+            case Field.BLOB:
+                if(data instanceof ByteBuffer){
+                    statement.bindBlob(bindIndex, toBlob((ByteBuffer) data));
+                } else {
+                    statement.bindBlob(bindIndex, (byte[]) data);
+                }
+                break;
         }
-
-        return contentValues;
     }
 
 
-    private List<Object> fetchRow(Cursor cursor, String tableName){
-        List<Object> dataList = new ArrayList<>();
-        Table table = tableMap.get(tableName);
-        List<Field> fieldList =  table.getFieldList();
-
-        List<ForeignKey> foreignKeyList = table.getForeignKeyList();
-        List<String> childColumnNameList = new ArrayList<>();
-        for (ForeignKey foreignKey : foreignKeyList){
-            childColumnNameList.add(foreignKey.getChildColumnName());
+    private void bindTableClass(SQLiteStatement statement, Table table, TableClass tableClass){
+        //key of a parent given by Reference.set() may have to be read from the parent table
+        List<Reference<?>> referenceList = new ArrayList<>();
+        tableClass.getReferences(referenceList);
+        for (Reference<?> reference : referenceList) {
+            reference.bindIfUnbound(this);
         }
 
-        for (int i = 0; i < fieldList.size(); i++) {
-            Field field = fieldList.get(i);
-            int cursorIndex = cursor.getColumnIndex(field.getName());
-            switch (field.getType()) {
-                case Field.TEXT:
-                    dataList.add(cursor.isNull(cursorIndex)?null:cursor.getString(cursorIndex));
-                    break;
-                case Field.INTEGER:
-                    if (field.getTrueType() == int.class || field.getTrueType() == Integer.class) {
-                        dataList.add(cursor.isNull(cursorIndex)?null:cursor.getInt(cursorIndex));
-                    } else if (field.getTrueType() == long.class || field.getTrueType() == Long.class) {
-                        if(cursor.isNull(cursorIndex)){
-                            dataList.add(null);
-                        } else {
-                            if (childColumnNameList.contains(field.getName())) {
-                                int foreignIndex = childColumnNameList.indexOf(field.getName());
-                                ForeignKey foreignKey = foreignKeyList.get(foreignIndex);
+        //generated helper binds the fields directly, otherwise fallback to data list
+        if(!tableClass.bindStatement(statement)) {
+            List<Object> dataList = new ArrayList<>();
+            tableClass.getObjectData(dataList);
+            bindObjectData(statement, table, dataList);
+        }
+    }
 
-                                dataList.add(findFirstWithCriteria(foreignKey.getParentTableName(), foreignKey.getParentTableClass(),
-                                        foreignKey.getParentColumnName() + "=?", new String[]{Long.toString(cursor.getLong(cursorIndex))}));
 
-                            } else {
-                                dataList.add(cursor.getLong(cursorIndex));
-                            }
-                        }
-                    } else if (field.getTrueType() == boolean.class || field.getTrueType() == Boolean.class) {
-                        dataList.add(cursor.isNull(cursorIndex)?null:(cursor.getInt(cursorIndex) == 1));
-                    } else if (field.getTrueType() == Date.class) {
-                        if(cursor.isNull(cursorIndex)){
-                            dataList.add(null);
-                        } else {
-                            long dateLong = cursor.getLong(cursorIndex);
-                            dataList.add(new Date(dateLong));
-                        }
-                    }
-                    break;
-                case Field.REAL:
-                    if (field.getTrueType() == float.class || field.getTrueType() == Float.class) {
-                        dataList.add(cursor.isNull(cursorIndex)?null:cursor.getFloat(cursorIndex));
-                    } else if (field.getTrueType() == double.class || field.getTrueType() == Double.class) {
-                        dataList.add(cursor.isNull(cursorIndex)?null:cursor.getDouble(cursorIndex));
-                    }
-                    break;
-                case Field.BLOB:
-                    //TODO :
-                    break;
+    private SQLiteStatement getCompiledStatement(String statementKey, String sql){
+        SQLiteStatement statement = statementMap.get(statementKey);
+        if(statement == null){
+            synchronized (statementMap) {
+                statement = statementMap.get(statementKey);
+                if(statement == null) {
+                    statement = getDatabase(false).compileStatement(sql);
+                    statementMap.put(statementKey, statement);
+                }
             }
-
         }
-        return dataList;
+        return statement;
     }
 
+    private SQLiteStatement getInsertStatement(Table table){
+        String statementKey = "INSERT|" + table.getName();
+        SQLiteStatement statement = statementMap.get(statementKey);
+        if(statement != null) return statement;
 
-    private <T extends TableClass> void fetchRecordLog(Table table, T tableClass, Cursor cursor) {
+        //a null field is not written, so the column keeps its DEFAULT just like an omitted column
+        Map<String, String> defaultMap = getColumnDefaults(table);
+        List<String> columnList = new ArrayList<>();
+        List<String> placeholderList = new ArrayList<>();
+        for (Field field : table.getFieldList()){
+            columnList.add(field.getName());
+            String defaultValue = defaultMap.get(field.getName());
+            placeholderList.add(defaultValue == null ? "?" : "COALESCE(?," + defaultValue + ")");
+        }
         if(table.isRecordLogEnabled){
-            int createdAtColumnIndex = cursor.getColumnIndex(CREATED_AT);
-            if(!cursor.isNull(createdAtColumnIndex)) {
-                long createdAtLong = cursor.getLong(createdAtColumnIndex);
-                tableClass._created_at = new Date(createdAtLong);
-            }
+            columnList.add(CREATED_AT);
+            placeholderList.add("?");
+        }
 
-            int updatedAtColumnIndex = cursor.getColumnIndex(UPDATED_AT);
-            if(!cursor.isNull(updatedAtColumnIndex)) {
-                long updatedAtLong = cursor.getLong(updatedAtColumnIndex);
-                tableClass._updated_at = new Date(updatedAtLong);
+        String sql = "INSERT INTO " + table.getName() + " (" + TextUtils.join(",", columnList) + ") VALUES ("
+                + TextUtils.join(",", placeholderList) + ")";
+        return getCompiledStatement(statementKey, sql);
+    }
+
+    //DEFAULT expression of each column as declared in the schema, tables created by script are included
+    private Map<String, String> getColumnDefaults(Table table){
+        Map<String, String> defaultMap = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = getDatabase(true).rawQuery("PRAGMA table_info(" + table.getName() + ")", null);
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int defaultIndex = cursor.getColumnIndexOrThrow("dflt_value");
+            while (cursor.moveToNext()){
+                if(!cursor.isNull(defaultIndex)){
+                    defaultMap.put(cursor.getString(nameIndex), "(" + cursor.getString(defaultIndex) + ")");
+                }
             }
+        } finally {
+            closeCursor(cursor);
         }
+        return defaultMap;
     }
 
-    //create or insert
-    private boolean save(TableClass tableClass) {
-        long id = -1;
-        try {
-            SQLiteDatabase database = getDatabase(false);
+    private SQLiteStatement getUpdateStatement(Table table){
+        String statementKey = "UPDATE|" + table.getName();
+        SQLiteStatement statement = statementMap.get(statementKey);
+        if(statement != null) return statement;
 
-            Table table = tableMap.get(tableClass.getTableName());
+        //a null field leaves the column untouched
+        List<String> setList = new ArrayList<>();
+        for (Field field : table.getFieldList()){
+            setList.add(field.getName() + "=COALESCE(?," + field.getName() + ")");
+        }
+        if(table.isRecordLogEnabled){
+            setList.add(UPDATED_AT + "=?");
+        }
 
-            List<Object> dataList = new ArrayList<>();
-            tableClass.getObjectData(dataList);
+        String sql = "UPDATE " + table.getName() + " SET " + TextUtils.join(",", setList) + " WHERE " + ID + "=?";
+        return getCompiledStatement(statementKey, sql);
+    }
 
-            ContentValues contentValues = getContentValues(table, dataList);
+    //conflict columns of upsert, default is the first unique constraint of the table
+    private String[] getConflictColumns(Table table, String[] conflictColumns){
+        if(conflictColumns != null && conflictColumns.length > 0) return conflictColumns;
 
-            if(table.isRecordLogEnabled){
-                long timeStamp = System.currentTimeMillis();
-                contentValues.put(CREATED_AT, timeStamp);
-                tableClass._created_at = new Date(timeStamp);
-            }
+        if(!table.getUniqueList().isEmpty()){
+            List<String> columnList = table.getUniqueList().get(0).getColumnList();
+            return columnList.toArray(new String[columnList.size()]);
+        }
+        for (Field field : table.getFieldList()){
+            if(field.isUnique()) return new String[]{field.getName()};
+        }
+        throw new RuntimeException(String.format(
+                "Table %s has no unique constraint, define conflict columns for upsert", table.getName()));
+    }
 
-            id = database.insert(tableClass.getTableName(), null, contentValues);
+    private String getConflictWhereClause(String[] conflictColumns){
+        List<String> whereList = new ArrayList<>();
+        for (String column : conflictColumns){
+            whereList.add(column + "=?");
+        }
+        return TextUtils.join(" AND ", whereList);
+    }
 
-            closeDatabase();
+    //SET part shared by both upsert forms, conflict columns keep their value and soft deleted row is restored
+    private List<String> getUpsertSetList(Table table, String[] conflictColumns, boolean isExcluded){
+        List<String> conflictColumnList = Arrays.asList(conflictColumns);
+        List<String> setList = new ArrayList<>();
+        for (Field field : table.getFieldList()){
+            if(isExcluded && conflictColumnList.contains(field.getName())) continue;
+            setList.add(field.getName() + (isExcluded ? "=excluded." + field.getName() : "=?"));
+        }
+        if(table.isRecordLogEnabled){
+            setList.add(UPDATED_AT + (isExcluded ? "=excluded." + CREATED_AT : "=?"));
+        }
+        if(table.isSoftDeleteEnabled){
+            setList.add(DELETED_AT + "=NULL");
+        }
+        if(setList.isEmpty()){
+            //DO NOTHING would not report the existing row
+            setList.add(conflictColumns[0] + "=" + (isExcluded ? "excluded." : "") + conflictColumns[0]);
+        }
+        return setList;
+    }
 
-            if(id <= 0){
-                return false;
-            }
-        } catch (SQLException e){
-            return false;
+    private SQLiteStatement getUpsertStatement(Table table, String[] conflictColumns, boolean isReturning){
+        String conflictTarget = TextUtils.join(",", conflictColumns);
+        String statementKey = "UPSERT|" + table.getName() + "|" + conflictTarget;
+        SQLiteStatement statement = statementMap.get(statementKey);
+        if(statement != null) return statement;
+
+        List<String> columnList = new ArrayList<>();
+        List<String> placeholderList = new ArrayList<>();
+        for (Field field : table.getFieldList()){
+            columnList.add(field.getName());
+            placeholderList.add("?");
+        }
+        if(table.isRecordLogEnabled){
+            columnList.add(CREATED_AT);
+            placeholderList.add("?");
         }
 
-        tableClass._id = id;
-        return true;
+        String sql = "INSERT INTO " + table.getName() + " (" + TextUtils.join(",", columnList) + ") VALUES ("
+                + TextUtils.join(",", placeholderList) + ") ON CONFLICT(" + conflictTarget + ") DO UPDATE SET "
+                + TextUtils.join(",", getUpsertSetList(table, conflictColumns, true))
+                + (isReturning ? " RETURNING " + ID : "");
+        return getCompiledStatement(statementKey, sql);
     }
 
+    //used before sqlite 3.24, update by conflict columns then insert when nothing is updated
+    private SQLiteStatement getUpsertUpdateStatement(Table table, String[] conflictColumns){
+        String statementKey = "UPSERT_UPDATE|" + table.getName() + "|" + TextUtils.join(",", conflictColumns);
+        SQLiteStatement statement = statementMap.get(statementKey);
+        if(statement != null) return statement;
 
+        String sql = "UPDATE " + table.getName() + " SET " + TextUtils.join(",", getUpsertSetList(table, conflictColumns, false))
+                + " WHERE " + getConflictWhereClause(conflictColumns);
+        return getCompiledStatement(statementKey, sql);
+    }
 
-    //update
-    private boolean update(TableClass tableClass) {
-        long affectedRows = -1;
-        try {
-            SQLiteDatabase database = getDatabase(false);
-
-            Table table = tableMap.get(tableClass.getTableName());
+    private SQLiteStatement getUpsertIdStatement(Table table, String[] conflictColumns){
+        String statementKey = "UPSERT_ID|" + table.getName() + "|" + TextUtils.join(",", conflictColumns);
+        SQLiteStatement statement = statementMap.get(statementKey);
+        if(statement != null) return statement;
 
-            List<Object>  dataList = new ArrayList<>();
-            tableClass.getObjectData(dataList);
+        String sql = "SELECT " + ID + " FROM " + table.getName() + " WHERE " + getConflictWhereClause(conflictColumns);
+        return getCompiledStatement(statementKey, sql);
+    }
 
-            ContentValues contentValues = getContentValues(table, dataList);
+    //bind value of conflict columns starting from bindIndex
+    private void bindConflictValues(SQLiteStatement statement, int bindIndex, Table table, TableClass tableClass, String[] conflictColumns){
+        List<Object> dataList = new ArrayList<>();
+        tableClass.getObjectData(dataList);
+        List<Field> fieldList = table.getFieldList();
 
-            if(table.isRecordLogEnabled){
-                long timeStamp = System.currentTimeMillis();
-                contentValues.put(UPDATED_AT, timeStamp);
-                tableClass._updated_at = new Date(timeStamp);
+        for (String column : conflictColumns){
+            int fieldIndex = -1;
+            for (int i = 0; i < fieldList.size(); i++) {
+                if(fieldList.get(i).getName().equals(column)){
+                    fieldIndex = i;
+                    break;
+                }
             }
 
-            affectedRows = database.update(tableClass.getTableName(), contentValues, ID+"=?",
-                    new String[]{Long.toString(tableClass._id)});
+            if(fieldIndex >= 0){
+                bindFieldValue(statement, bindIndex++, fieldList.get(fieldIndex), dataList.get(fieldIndex));
+            } else if(ID.equals(column) && tableClass._id != null){
+                statement.bindLong(bindIndex++, tableClass._id);
+            } else {
+                throw new RuntimeException(String.format(
+                        "Column %s is not a field of table %s", column, table.getName()));
+            }
+        }
+    }
 
-            closeDatabase();
+    private long queryUpsertId(Table table, TableClass tableClass, String[] conflictColumns){
+        SQLiteStatement statement = getUpsertIdStatement(table, conflictColumns);
+        synchronized (statement) {
+            statement.clearBindings();
+            bindConflictValues(statement, 1, table, tableClass, conflictColumns);
+            return statement.simpleQueryForLong();
+        }
+    }
 
-            if(affectedRows <= 0){
-                return false;
+    private synchronized int getSQLiteVersionCode(){
+        if(sqliteVersionCode < 0){
+            String version = DatabaseUtils.stringForQuery(getDatabase(true), "select sqlite_version()", null);
+            String[] versionParts = version.split("\\.");
+            sqliteVersionCode = 0;
+            for (int i = 0; i < 3; i++) {
+                sqliteVersionCode = sqliteVersionCode * 1000 + (i < versionParts.length ? Integer.parseInt(versionParts[i]) : 0);
             }
-        } catch (SQLException e){
-            return false;
         }
-        return true;
+        return sqliteVersionCode;
     }
 
+    //return _id of the inserted or updated row
+    private long executeUpsert(final Table table, final TableClass tableClass, final String[] conflictColumns){
+        int versionCode = getSQLiteVersionCode();
+        if(versionCode >= SQLITE_VERSION_UPSERT){
+            boolean isReturning = versionCode >= SQLITE_VERSION_RETURNING;
+            SQLiteStatement statement = getUpsertStatement(table, conflictColumns, isReturning);
+            synchronized (statement) {
+                statement.clearBindings();
+                bindTableClass(statement, table, tableClass);
+                if(table.isRecordLogEnabled){
+                    statement.bindLong(table.getFieldList().size() + 1, System.currentTimeMillis());
+                }
 
-    public <T extends TableClass> boolean update(String tableName, Class<T> clazz,  ContentValues contentValues, String whereClause, String[] whereClauseArgs){
-        if(TextUtils.isEmpty(tableName)){
-            tableName = clazz.getSimpleName();
+                if(isReturning){
+                    return statement.simpleQueryForLong();
+                }
+                statement.executeInsert();
+            }
+            //last insert rowid is not changed when the row is updated
+            return queryUpsertId(table, tableClass, conflictColumns);
         }
-        long affectedRows = -1;
-        try {
-            SQLiteDatabase database = getDatabase(false);
 
-            affectedRows = database.update(tableName, contentValues, whereClause, whereClauseArgs);
+        //each statement is atomic, the transaction only keeps other writers out between update and insert
+        if(getDatabase(false).inTransaction()){
+            return executeUpsertFallback(table, tableClass, conflictColumns);
+        }
+        return inTransaction(TransactionMode.IMMEDIATE, new Callable<Long>() {
+            @Override
+            public Long call() {
+                return executeUpsertFallback(table, tableClass, conflictColumns);
+            }
+        });
+    }
 
-            closeDatabase();
+    private long executeUpsertFallback(Table table, TableClass tableClass, String[] conflictColumns){
+        int affectedRows;
+        SQLiteStatement statement = getUpsertUpdateStatement(table, conflictColumns);
+        synchronized (statement) {
+            statement.clearBindings();
+            bindTableClass(statement, table, tableClass);
+            int bindIndex = table.getFieldList().size() + 1;
+            if(table.isRecordLogEnabled){
+                statement.bindLong(bindIndex++, System.currentTimeMillis());
+            }
+            bindConflictValues(statement, bindIndex, table, tableClass, conflictColumns);
+            affectedRows = statement.executeUpdateDelete();
+        }
 
-            if(affectedRows <= 0){
-                return false;
+        if(affectedRows > 0){
+            return queryUpsertId(table, tableClass, conflictColumns);
+        }
+        SQLiteStatement insertStatement = getInsertStatement(table);
+        synchronized (insertStatement) {
+            return executeInsert(insertStatement, table, tableClass);
+        }
+    }
+
+    /**
+     * insert or update one column of the row having keyValue in keyColumn, keyColumn must be unique.
+     * other columns of an existing row keep their value, a new row has NULL in them. return false when it failed
+     */
+    boolean upsertColumn(final String tableName, final String keyColumn, final String keyValue, final String column, final Object value){
+        try {
+            if(getSQLiteVersionCode() >= SQLITE_VERSION_UPSERT){
+                String sql = "INSERT INTO " + tableName + " (" + keyColumn + "," + column + ") VALUES (?,?) ON CONFLICT("
+                        + keyColumn + ") DO UPDATE SET " + column + "=excluded." + column;
+                SQLiteStatement statement = getCompiledStatement("UPSERT_COLUMN|" + sql, sql);
+                synchronized (statement) {
+                    statement.clearBindings();
+                    statement.bindString(1, keyValue);
+                    DatabaseUtils.bindObjectToProgram(statement, 2, value);
+                    statement.executeInsert();
+                }
+                return true;
             }
+
+            if(getDatabase(false).inTransaction()){
+                upsertColumnFallback(tableName, keyColumn, keyValue, column, value);
+                return true;
+            }
+            return inTransaction(TransactionMode.IMMEDIATE, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    upsertColumnFallback(tableName, keyColumn, keyValue, column, value);
+                    return true;
+                }
+            });
         } catch (SQLException e){
+            Log.e(TAG, "upsert of " + tableName + "." + column + " failed:", e);
             return false;
         }
-        return true;
     }
 
+    //used before sqlite 3.24, update by key then insert when nothing is updated
+    private void upsertColumnFallback(String tableName, String keyColumn, String keyValue, String column, Object value){
+        String updateSql = "UPDATE " + tableName + " SET " + column + "=? WHERE " + keyColumn + "=?";
+        SQLiteStatement statement = getCompiledStatement("UPSERT_COLUMN_UPDATE|" + updateSql, updateSql);
+        int affectedRows;
+        synchronized (statement) {
+            statement.clearBindings();
+            DatabaseUtils.bindObjectToProgram(statement, 1, value);
+            statement.bindString(2, keyValue);
+            affectedRows = statement.executeUpdateDelete();
+        }
+        if(affectedRows > 0) return;
+
+        String insertSql = "INSERT INTO " + tableName + " (" + keyColumn + "," + column + ") VALUES (?,?)";
+        statement = getCompiledStatement("UPSERT_COLUMN_INSERT|" + insertSql, insertSql);
+        synchronized (statement) {
+            statement.clearBindings();
+            statement.bindString(1, keyValue);
+            DatabaseUtils.bindObjectToProgram(statement, 2, value);
+            statement.executeInsert();
+        }
+    }
+
+    /**
+     * point queries through a cached compiled statement, sql must select one column of one row.
+     * throw SQLiteDoneException when no row is found
+     */
+    String simpleQueryForString(String sql, String... args){
+        SQLiteStatement statement = getCompiledStatement("QUERY|" + sql, sql);
+        synchronized (statement) {
+            statement.clearBindings();
+            statement.bindAllArgsAsStrings(args);
+            return statement.simpleQueryForString();
+        }
+    }
+
+    long simpleQueryForLong(String sql, String... args){
+        SQLiteStatement statement = getCompiledStatement("QUERY|" + sql, sql);
+        synchronized (statement) {
+            statement.clearBindings();
+            statement.bindAllArgsAsStrings(args);
+            return statement.simpleQueryForLong();
+        }
+    }
+
+    //compiled statement returns a REAL only as text of 15 significant digits, so one row is read through a cursor
+    double simpleQueryForDouble(String sql, String... args){
+        Cursor cursor = null;
+        try {
+            cursor = getDatabase(true).rawQuery(sql, args);
+            if(!cursor.moveToFirst()){
+                throw new SQLiteDoneException();
+            }
+            return cursor.getDouble(0);
+        } finally {
+            closeCursor(cursor);
+        }
+    }
+
+    //caller must hold the statement lock
+    private long executeInsert(SQLiteStatement statement, Table table, TableClass tableClass){
+        statement.clearBindings();
+        bindTableClass(statement, table, tableClass);
+
+        if(table.isRecordLogEnabled){
+            long timeStamp = System.currentTimeMillis();
+            statement.bindLong(table.getFieldList().size() + 1, timeStamp);
+            tableClass._created_at = new Date(timeStamp);
+        }
+
+        return statement.executeInsert();
+    }
+
+    //caller must hold the statement lock
+    private int executeUpdate(SQLiteStatement statement, Table table, TableClass tableClass){
+        statement.clearBindings();
+        bindTableClass(statement, table, tableClass);
+
+        int bindIndex = table.getFieldList().size() + 1;
+        if(table.isRecordLogEnabled){
+            long timeStamp = System.currentTimeMillis();
+            statement.bindLong(bindIndex++, timeStamp);
+            tableClass._updated_at = new Date(timeStamp);
+        }
+        statement.bindLong(bindIndex, tableClass._id);
+
+        return statement.executeUpdateDelete();
+    }
+
+    //value compared by dirty tracking, mutable values are copied so later changes are visible
+    private static Object getSnapshotValue(Object data, boolean isCopy){
+        if(data instanceof TableClass){
+            return ((TableClass) data)._id;
+        } else if(data instanceof Date){
+            return ((Date) data).getTime();
+        } else if(data instanceof ByteBuffer){
+            byte[] bytes = toBlob((ByteBuffer) data);
+            return isCopy ? bytes.clone() : bytes;
+        } else if(data instanceof byte[]){
+            return isCopy ? ((byte[]) data).clone() : data;
+        }
+        return data;
+    }
+
+    /**
+     * snapshot must describe committed rows, inside a transaction it is kept by the transaction and given to the
+     * object only after the commit. a rolled back write leaves the old snapshot so the next update writes again
+     */
+    private void takeSnapshot(Table table, TableClass tableClass){
+        if(!table.isDirtyTrackingEnabled) return;
+
+        List<Object> dataList = new ArrayList<>();
+        tableClass.getObjectData(dataList);
+        Object[] snapshot = new Object[dataList.size()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = getSnapshotValue(dataList.get(i), true);
+        }
+
+        TransactionContext context = transactionContext.get();
+        if(context != null){
+            context.pendingSnapshotMap.put(tableClass, snapshot);
+        } else {
+            tableClass.dirtySnapshot = snapshot;
+        }
+    }
+
+    //snapshot written by the running transaction of this thread if any, the committed one otherwise
+    private Object[] getSnapshot(TableClass tableClass){
+        TransactionContext context = transactionContext.get();
+        if(context != null && context.pendingSnapshotMap.containsKey(tableClass)){
+            return context.pendingSnapshotMap.get(tableClass);
+        }
+        return tableClass.dirtySnapshot;
+    }
+
+    private BitSet getDirtyFields(Object[] snapshot, List<Object> dataList){
+        BitSet dirtyFields = new BitSet(dataList.size());
+        for (int i = 0; i < dataList.size(); i++) {
+            Object oldValue = snapshot[i];
+            Object newValue = getSnapshotValue(dataList.get(i), false);
+            boolean isEqual;
+            if(oldValue instanceof byte[] && newValue instanceof byte[]){
+                isEqual = Arrays.equals((byte[]) oldValue, (byte[]) newValue);
+            } else {
+                isEqual = oldValue == null ? newValue == null : oldValue.equals(newValue);
+            }
+            //null is never written by update, same as a full row update
+            if(!isEqual && newValue != null) dirtyFields.set(i);
+        }
+        return dirtyFields;
+    }
+
+    //selected fields of a projected object, null is never written by update, same as a full row update
+    private BitSet getProjectedFields(TableClass tableClass, List<Object> dataList){
+        BitSet projectedFields = (BitSet) tableClass.projectedFields.clone();
+        for (int i = projectedFields.nextSetBit(0); i >= 0; i = projectedFields.nextSetBit(i + 1)) {
+            if(dataList.get(i) == null) projectedFields.clear(i);
+        }
+        return projectedFields;
+    }
+
+    //caller must hold the dirtyStatementMap lock, an evicted statement is closed
+    private SQLiteStatement getDirtyUpdateStatement(Table table, BitSet dirtyFields){
+        String statementKey = table.getName() + "|" + dirtyFields;
+        SQLiteStatement statement = dirtyStatementMap.get(statementKey);
+        if(statement != null) return statement;
+
+        List<Field> fieldList = table.getFieldList();
+        List<String> setList = new ArrayList<>();
+        for (int i = dirtyFields.nextSetBit(0); i >= 0; i = dirtyFields.nextSetBit(i + 1)) {
+            setList.add(fieldList.get(i).getName() + "=?");
+        }
+        if(table.isRecordLogEnabled){
+            setList.add(UPDATED_AT + "=?");
+        }
+
+        String sql = "UPDATE " + table.getName() + " SET " + TextUtils.join(",", setList) + " WHERE " + ID + "=?";
+        statement = getDatabase(false).compileStatement(sql);
+        dirtyStatementMap.put(statementKey, statement);
+        return statement;
+    }
+
+    /**
+     * update all fields, or only the dirty ones when the table tracks them. unchanged object is not written at all.
+     * object loaded with a projection writes only its selected fields, the others only hold default values
+     */
+    private boolean updateRow(Table table, TableClass tableClass){
+        int affectedRows;
+        Object[] snapshot = table.isDirtyTrackingEnabled ? getSnapshot(tableClass) : null;
+        if(snapshot != null || tableClass.projectedFields != null){
+            List<Object> dataList = new ArrayList<>();
+            tableClass.getObjectData(dataList);
+            BitSet dirtyFields = snapshot != null ? getDirtyFields(snapshot, dataList) : getProjectedFields(tableClass, dataList);
+            if(dirtyFields.isEmpty()) return true;
+
+            List<Field> fieldList = table.getFieldList();
+            synchronized (dirtyStatementMap) {
+                SQLiteStatement statement = getDirtyUpdateStatement(table, dirtyFields);
+                statement.clearBindings();
+                int bindIndex = 1;
+                for (int i = dirtyFields.nextSetBit(0); i >= 0; i = dirtyFields.nextSetBit(i + 1)) {
+                    bindFieldValue(statement, bindIndex++, fieldList.get(i), dataList.get(i));
+                }
+                if(table.isRecordLogEnabled){
+                    long timeStamp = System.currentTimeMillis();
+                    statement.bindLong(bindIndex++, timeStamp);
+                    tableClass._updated_at = new Date(timeStamp);
+                }
+                statement.bindLong(bindIndex, tableClass._id);
+                affectedRows = statement.executeUpdateDelete();
+            }
+        } else {
+            SQLiteStatement statement = getUpdateStatement(table);
+            synchronized (statement) {
+                affectedRows = executeUpdate(statement, table, tableClass);
+            }
+        }
+
+        if(affectedRows <= 0) return false;
+        takeSnapshot(table, tableClass);
+        return true;
+    }
+
+
+    //column positions of a table inside a cursor, resolved once and shared by every row of the query
+    private static class CursorShape {
+        private int idIndex;
+        private int createdAtIndex;
+        private int updatedAtIndex;
+        private int[] columnIndexes;
+        //indexed by field position, null when the field is not a foreign key
+        private ForeignKey[] foreignKeys;
+        //positions of the fields read by the cursor, null when every field is read
+        private BitSet projectedFields;
+
+        private CursorShape(Cursor cursor, Table table){
+            idIndex = cursor.getColumnIndex(ID);
+            createdAtIndex = cursor.getColumnIndex(CREATED_AT);
+            updatedAtIndex = cursor.getColumnIndex(UPDATED_AT);
+
+            List<Field> fieldList = table.getFieldList();
+            columnIndexes = new int[fieldList.size()];
+            foreignKeys = new ForeignKey[fieldList.size()];
+            for (int i = 0; i < fieldList.size(); i++) {
+                Field field = fieldList.get(i);
+                columnIndexes[i] = cursor.getColumnIndex(field.getName());
+                for (ForeignKey foreignKey : table.getForeignKeyList()){
+                    if(foreignKey.getChildColumnName().equals(field.getName())){
+                        foreignKeys[i] = foreignKey;
+                        break;
+                    }
+                }
+            }
+            BitSet readFields = new BitSet(fieldList.size());
+            for (int i = 0; i < columnIndexes.length; i++) {
+                if(columnIndexes[i] >= 0) readFields.set(i);
+            }
+            projectedFields = readFields.cardinality() < fieldList.size() ? readFields : null;
+        }
+    }
+
+    private CursorShape getCursorShape(Cursor cursor, Table table){
+        //same table with same projection always give same shape
+        String shapeKey = table.getName() + "|" + TextUtils.join(",", cursor.getColumnNames());
+        CursorShape cursorShape = cursorShapeMap.get(shapeKey);
+        if(cursorShape == null){
+            cursorShape = new CursorShape(cursor, table);
+            cursorShapeMap.put(shapeKey, cursorShape);
+        }
+        return cursorShape;
+    }
+
+
+    //value of a field that is not read, primitive fields can not take null
+    private Object getDefaultValue(Field field){
+        Class trueType = field.getTrueType();
+        if(trueType == int.class) return 0;
+        if(trueType == long.class) return 0L;
+        if(trueType == float.class) return 0f;
+        if(trueType == double.class) return 0d;
+        if(trueType == boolean.class) return false;
+        return null;
+    }
+
+
+    private List<Object> fetchRow(Cursor cursor, Table table, CursorShape cursorShape){
+        List<Object> dataList = new ArrayList<>();
+        List<Field> fieldList =  table.getFieldList();
+
+        for (int i = 0; i < fieldList.size(); i++) {
+            Field field = fieldList.get(i);
+            int cursorIndex = cursorShape.columnIndexes[i];
+
+            //column is not in the projection
+            if(cursorIndex < 0){
+                dataList.add(getDefaultValue(field));
+                continue;
+            }
+
+            switch (field.getType()) {
+                case Field.TEXT:
+                    dataList.add(cursor.isNull(cursorIndex)?null:cursor.getString(cursorIndex));
+                    break;
+                case Field.INTEGER:
+                    if (field.getTrueType() == int.class || field.getTrueType() == Integer.class) {
+                        dataList.add(cursor.isNull(cursorIndex)?null:cursor.getInt(cursorIndex));
+                    } else if (field.getTrueType() == long.class || field.getTrueType() == Long.class) {
+                        if(cursor.isNull(cursorIndex)){
+                            dataList.add(null);
+                        } else {
+                            //foreign key is kept as raw key here, resolveParents swap it with the parent object
+                            dataList.add(cursor.getLong(cursorIndex));
+                        }
+                    } else if (field.getTrueType() == boolean.class || field.getTrueType() == Boolean.class) {
+                        dataList.add(cursor.isNull(cursorIndex)?null:(cursor.getInt(cursorIndex) == 1));
+                    } else if (field.getTrueType() == Date.class) {
+                        if(cursor.isNull(cursorIndex)){
+                            dataList.add(null);
+                        } else {
+                            long dateLong = cursor.getLong(cursorIndex);
+                            dataList.add(new Date(dateLong));
+                        }
+                    }
+                    break;
+                case Field.REAL:
+                    if (field.getTrueType() == float.class || field.getTrueType() == Float.class) {
+                        dataList.add(cursor.isNull(cursorIndex)?null:cursor.getFloat(cursorIndex));
+                    } else if (field.getTrueType() == double.class || field.getTrueType() == Double.class) {
+                        dataList.add(cursor.isNull(cursorIndex)?null:cursor.getDouble(cursorIndex));
+                    }
+                    break;
+                case Field.BLOB:
+                    dataList.add(cursor.isNull(cursorIndex)?null:cursor.getBlob(cursorIndex));
+                    break;
+            }
+
+        }
+        return dataList;
+    }
+
+
+    //parents already loaded inside one query, shared by every child row that reference them
+    private static class IdentityMap {
+        private Map<String, Map<Long, TableClass>> parentMap = new HashMap<>();
+
+        private Map<Long, TableClass> getParentMap(ForeignKey foreignKey){
+            String parentKey = foreignKey.getParentTableName() + "." + foreignKey.getParentColumnName();
+            Map<Long, TableClass> map = parentMap.get(parentKey);
+            if(map == null){
+                map = new HashMap<>();
+                parentMap.put(parentKey, map);
+            }
+            return map;
+        }
+    }
+
+
+    //hydrate all rows of the cursor, foreign keys of the whole result are resolved together at the end
+    private <T extends TableClass> List<T> fetchObjectList(Cursor cursor, Table table, Class<T> clazz, IdentityMap identityMap)
+            throws InstantiationException, IllegalAccessException {
+        return fetchObjectList(cursor, table, clazz, identityMap, null, null);
+    }
+
+    //keyList receives the value of keyColumnName of every row, in the same order as the result
+    private <T extends TableClass> List<T> fetchObjectList(Cursor cursor, Table table, Class<T> clazz, IdentityMap identityMap,
+                                                           String keyColumnName, List<Long> keyList)
+            throws InstantiationException, IllegalAccessException {
+        List<T> resultList = new ArrayList<>();
+        if(!cursor.moveToFirst()) return resultList;
+
+        CursorShape cursorShape = getCursorShape(cursor, table);
+        int keyIndex = keyList == null ? -1 : cursor.getColumnIndexOrThrow(keyColumnName);
+
+        //rows that fallback to data list, their parents are not resolved yet
+        List<T> pendingObjectList = null;
+        List<List<Object>> pendingDataList = null;
+
+        while (!cursor.isAfterLast()) {
+            T tableClass = newInstance(clazz);
+            if(cursorShape.idIndex >= 0) tableClass._id = cursor.getLong(cursorShape.idIndex);
+            ((TableClass) tableClass).projectedFields = cursorShape.projectedFields;
+
+            //generated helper reads the row directly, otherwise fallback to data list
+            if(!tableClass.readFromCursor(cursor, cursorShape.columnIndexes)) {
+                if(pendingObjectList == null){
+                    pendingObjectList = new ArrayList<>();
+                    pendingDataList = new ArrayList<>();
+                }
+                pendingObjectList.add(tableClass);
+                pendingDataList.add(fetchRow(cursor, table, cursorShape));
+            }
+
+            fetchRecordLog(table, tableClass, cursor, cursorShape);
+
+            resultList.add(tableClass);
+            if(keyIndex >= 0) keyList.add(cursor.getLong(keyIndex));
+
+            cursor.moveToNext();
+        }
+
+        if(pendingObjectList != null){
+            resolveParents(cursorShape, pendingDataList, identityMap);
+            for (int i = 0; i < pendingObjectList.size(); i++) {
+                pendingObjectList.get(i).setObjectData(pendingDataList.get(i));
+            }
+        }
+
+        if(table.isDirtyTrackingEnabled){
+            for (T tableClass : resultList) {
+                takeSnapshot(table, tableClass);
+            }
+        }
+
+        bindReferences(resultList);
+
+        return resultList;
+    }
+
+
+    //hydrate only the row under the cursor, used when rows are read on demand
+    private <T extends TableClass> T fetchCurrentObject(Cursor cursor, Table table, Class<T> clazz, CursorShape cursorShape, IdentityMap identityMap)
+            throws InstantiationException, IllegalAccessException {
+        T tableClass = newInstance(clazz);
+        fetchCurrentObject(cursor, table, tableClass, cursorShape, identityMap, new ArrayList<Reference<?>>());
+        return tableClass;
+    }
+
+    //fill an existing object with the row under the cursor, every field is overwritten so the object can be reused
+    private void fetchCurrentObject(Cursor cursor, Table table, TableClass tableClass, CursorShape cursorShape,
+                                    IdentityMap identityMap, List<Reference<?>> referenceList)
+            throws InstantiationException, IllegalAccessException {
+        tableClass._id = cursorShape.idIndex >= 0 ? cursor.getLong(cursorShape.idIndex) : null;
+        tableClass._created_at = null;
+        tableClass._updated_at = null;
+        tableClass.projectedFields = cursorShape.projectedFields;
+
+        if(!tableClass.readFromCursor(cursor, cursorShape.columnIndexes)) {
+            List<List<Object>> dataListList = new ArrayList<>();
+            dataListList.add(fetchRow(cursor, table, cursorShape));
+            //identity map keep parents already loaded by previous rows
+            resolveParents(cursorShape, dataListList, identityMap);
+            tableClass.setObjectData(dataListList.get(0));
+        }
+
+        fetchRecordLog(table, tableClass, cursor, cursorShape);
+        takeSnapshot(table, tableClass);
+
+        referenceList.clear();
+        tableClass.getReferences(referenceList);
+        for (Reference<?> reference : referenceList) {
+            reference.bind(this);
+        }
+    }
+
+
+    //lazy references need to know where to load their parent from, the first get() loads the parents of the whole list
+    private <T extends TableClass> void bindReferences(List<T> resultList){
+        List<Reference<?>> referenceList = new ArrayList<>();
+        for (T tableClass : resultList) {
+            tableClass.getReferences(referenceList);
+        }
+        if(referenceList.isEmpty()) return;
+
+        ReferenceBatch referenceBatch = referenceList.size() > 1 ? new ReferenceBatch(this, referenceList) : null;
+        for (Reference<?> reference : referenceList) {
+            reference.bind(this, referenceBatch);
+        }
+    }
+
+
+    //references hydrated by one query, the first get() of any of them loads them all
+    private static class ReferenceBatch {
+        private final SQLiteWrapper sqLiteWrapper;
+        private List<Reference<?>> referenceList;
+
+        private ReferenceBatch(SQLiteWrapper sqLiteWrapper, List<Reference<?>> referenceList) {
+            this.sqLiteWrapper = sqLiteWrapper;
+            this.referenceList = referenceList;
+        }
+
+        private synchronized void load(){
+            if(referenceList == null) return;
+            List<Reference<?>> loadList = referenceList;
+            referenceList = null;
+            sqLiteWrapper.loadReferenceList(loadList);
+        }
+    }
+
+
+    //fill all not loaded references of the list at once, one IN (...) query per parent table instead of one query per get()
+    public <T extends TableClass> void loadReferences(List<T> tableClassList) {
+        if(tableClassList == null || tableClassList.isEmpty()) return;
+
+        List<Reference<?>> referenceList = new ArrayList<>();
+        for (T tableClass : tableClassList) {
+            tableClass.getReferences(referenceList);
+        }
+        loadReferenceList(referenceList);
+    }
+
+    private void loadReferenceList(List<Reference<?>> referenceList) {
+        Map<String, List<Reference<?>>> referenceGroupMap = new HashMap<>();
+        for (Reference<?> reference : referenceList) {
+            if(reference.isLoaded() || reference.getKey() == null) continue;
+            String groupKey = reference.parentTableName + "." + reference.parentColumnName;
+            List<Reference<?>> referenceGroup = referenceGroupMap.get(groupKey);
+            if(referenceGroup == null){
+                referenceGroup = new ArrayList<>();
+                referenceGroupMap.put(groupKey, referenceGroup);
+            }
+            referenceGroup.add(reference);
+        }
+
+        String parentClassName = null;
+        try {
+            IdentityMap identityMap = new IdentityMap();
+            for (List<Reference<?>> referenceGroup : referenceGroupMap.values()) {
+                Reference<?> firstReference = referenceGroup.get(0);
+                parentClassName = firstReference.parentClass.getSimpleName();
+                Table parentTable = tableMap.get(firstReference.parentTableName);
+                if(parentTable == null) continue;
+
+                ForeignKey foreignKey = new ForeignKey(null, firstReference.parentTableName, firstReference.parentClass,
+                        firstReference.parentColumnName, ForeignKey.NO_ACTION, ForeignKey.NO_ACTION);
+                Map<Long, TableClass> parentMap = identityMap.getParentMap(foreignKey);
+
+                List<Long> keyList = new ArrayList<>();
+                for (Reference<?> reference : referenceGroup) {
+                    if(!parentMap.containsKey(reference.getKey())){
+                        parentMap.put(reference.getKey(), null);
+                        keyList.add(reference.getKey());
+                    }
+                }
+
+                loadParents(foreignKey, parentTable, keyList, parentMap, identityMap);
+
+                for (Reference<?> reference : referenceGroup) {
+                    reference.bind(this);
+                    reference.setLoadedValue(parentMap.get(reference.getKey()));
+                }
+            }
+            closeDatabase();
+        } catch (SQLException e){
+            e.printStackTrace();
+        } catch (InstantiationException e){
+            throw getWarningWhenNoConstructorWithNoArgument(parentClassName);
+        } catch (IllegalAccessException e){
+            e.printStackTrace();
+        }
+    }
+
+
+    //replace foreign key values inside data lists with their parent objects
+    private void resolveParents(CursorShape cursorShape, List<List<Object>> dataListList, IdentityMap identityMap)
+            throws InstantiationException, IllegalAccessException {
+        for (int i = 0; i < cursorShape.foreignKeys.length; i++) {
+            ForeignKey foreignKey = cursorShape.foreignKeys[i];
+            if(foreignKey == null || foreignKey.getParentTableClass() == null || foreignKey.isLazy()) continue;
+
+            Table parentTable = tableMap.get(foreignKey.getParentTableName());
+            if(parentTable == null) continue;
+
+            Map<Long, TableClass> parentMap = identityMap.getParentMap(foreignKey);
+
+            List<Long> missingKeyList = new ArrayList<>();
+            for (List<Object> dataList : dataListList) {
+                Object key = dataList.get(i);
+                if(key instanceof Long && !parentMap.containsKey(key)){
+                    parentMap.put((Long) key, null);
+                    missingKeyList.add((Long) key);
+                }
+            }
+
+            loadParents(foreignKey, parentTable, missingKeyList, parentMap, identityMap);
+
+            for (List<Object> dataList : dataListList) {
+                Object key = dataList.get(i);
+                if(key instanceof Long){
+                    dataList.set(i, parentMap.get(key));
+                }
+            }
+        }
+    }
+
+
+    private void loadParents(ForeignKey foreignKey, Table parentTable, List<Long> keyList,
+                             Map<Long, TableClass> parentMap, IdentityMap identityMap)
+            throws InstantiationException, IllegalAccessException {
+        SQLiteDatabase database = getDatabase(true);
+
+        for (int start = 0; start < keyList.size(); start += PARENT_QUERY_CHUNK_SIZE) {
+            int end = Math.min(start + PARENT_QUERY_CHUNK_SIZE, keyList.size());
+
+            String[] keyArgs = new String[end - start];
+            StringBuilder sql = new StringBuilder("SELECT * FROM ").append(parentTable.getName())
+                    .append(" WHERE ").append(foreignKey.getParentColumnName()).append(" IN (");
+            for (int i = start; i < end; i++) {
+                if(i > start) sql.append(",");
+                sql.append("?");
+                keyArgs[i - start] = Long.toString(keyList.get(i));
+            }
+            sql.append(")");
+
+            if(parentTable.isSoftDeleteEnabled){
+                sql.append(" AND ").append(DELETED_AT).append(" IS NULL");
+            }
+
+            Cursor cursor = database.rawQuery(sql.toString(), keyArgs);
+            if(cursor != null) {
+                List<Long> parentKeyList = new ArrayList<>();
+                List<TableClass> parentList = fetchObjectList(cursor, parentTable, foreignKey.getParentTableClass(), identityMap,
+                        foreignKey.getParentColumnName(), parentKeyList);
+                for (int i = 0; i < parentList.size(); i++) {
+                    parentMap.put(parentKeyList.get(i), parentList.get(i));
+                }
+
+                closeCursor(cursor);
+            }
+        }
+    }
+
+
+    private <T extends TableClass> void fetchRecordLog(Table table, T tableClass, Cursor cursor, CursorShape cursorShape) {
+        if(table.isRecordLogEnabled){
+            int createdAtColumnIndex = cursorShape.createdAtIndex;
+            if(createdAtColumnIndex >= 0 && !cursor.isNull(createdAtColumnIndex)) {
+                long createdAtLong = cursor.getLong(createdAtColumnIndex);
+                tableClass._created_at = new Date(createdAtLong);
+            }
+
+            int updatedAtColumnIndex = cursorShape.updatedAtIndex;
+            if(updatedAtColumnIndex >= 0 && !cursor.isNull(updatedAtColumnIndex)) {
+                long updatedAtLong = cursor.getLong(updatedAtColumnIndex);
+                tableClass._updated_at = new Date(updatedAtLong);
+            }
+        }
+    }
+
+    //create or insert
+    private boolean save(TableClass tableClass) {
+        long id = -1;
+        try {
+            Table table = tableMap.get(tableClass.getTableName());
+
+            SQLiteStatement statement = getInsertStatement(table);
+            synchronized (statement) {
+                id = executeInsert(statement, table, tableClass);
+            }
+
+            closeDatabase();
+
+            if(id <= 0){
+                return false;
+            }
+            tableClass._id = id;
+            takeSnapshot(table, tableClass);
+        } catch (SQLException e){
+            return false;
+        }
+
+        return true;
+    }
+
+
+
+    //update
+    private boolean update(TableClass tableClass) {
+        try {
+            Table table = tableMap.get(tableClass.getTableName());
+
+            boolean isUpdated = updateRow(table, tableClass);
+
+            closeDatabase();
+
+            return isUpdated;
+        } catch (SQLException e){
+            return false;
+        }
+    }
+
+
+    //bulk create or insert, return number of saved rows
+    public <T extends TableClass> int saveAll(Collection<T> tableClassList) {
+        if(tableClassList == null || tableClassList.isEmpty()) return 0;
+
+        //one transaction per chunk, joined to the transaction of the calling thread if any
+        final int[] savedCount = {0};
+        final Iterator<T> iterator = tableClassList.iterator();
+        while (iterator.hasNext()) {
+            inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < batchChunkSize && iterator.hasNext(); i++) {
+                        T tableClass = iterator.next();
+                        Table table = tableMap.get(tableClass.getTableName());
+                        try {
+                            long id;
+                            SQLiteStatement statement = getInsertStatement(table);
+                            synchronized (statement) {
+                                id = executeInsert(statement, table, tableClass);
+                            }
+                            if (id > 0) {
+                                tableClass._id = id;
+                                takeSnapshot(table, tableClass);
+                                savedCount[0]++;
+                            }
+                        } catch (SQLException e) {
+                            Log.e(TAG, "saveAll skip row:", e);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        closeDatabase();
+
+        return savedCount[0];
+    }
+
+
+    //bulk update, return number of updated rows
+    public <T extends TableClass> int updateAll(Collection<T> tableClassList) {
+        if(tableClassList == null || tableClassList.isEmpty()) return 0;
+
+        final int[] updatedCount = {0};
+        final Iterator<T> iterator = tableClassList.iterator();
+        while (iterator.hasNext()) {
+            inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < batchChunkSize && iterator.hasNext(); i++) {
+                        T tableClass = iterator.next();
+                        if(tableClass._id == null) continue;
+                        Table table = tableMap.get(tableClass.getTableName());
+                        try {
+                            if (updateRow(table, tableClass)) {
+                                updatedCount[0]++;
+                            }
+                        } catch (SQLException e) {
+                            Log.e(TAG, "updateAll skip row:", e);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        closeDatabase();
+
+        return updatedCount[0];
+    }
+
+
+    //insert or update on conflict of conflictColumns (default is the first unique constraint), _id is set after that
+    private boolean upsert(TableClass tableClass, String[] conflictColumns) {
+        try {
+            Table table = tableMap.get(tableClass.getTableName());
+            long id = executeUpsert(table, tableClass, getConflictColumns(table, conflictColumns));
+
+            closeDatabase();
+
+            if(id <= 0){
+                return false;
+            }
+            tableClass._id = id;
+            takeSnapshot(table, tableClass);
+        } catch (SQLException e){
+            return false;
+        }
+        return true;
+    }
+
+
+    //bulk insert or update, return number of upserted rows
+    public <T extends TableClass> int upsertAll(Collection<T> tableClassList, final String... conflictColumns) {
+        if(tableClassList == null || tableClassList.isEmpty()) return 0;
+
+        final int[] upsertedCount = {0};
+        final Iterator<T> iterator = tableClassList.iterator();
+        while (iterator.hasNext()) {
+            inTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < batchChunkSize && iterator.hasNext(); i++) {
+                        T tableClass = iterator.next();
+                        Table table = tableMap.get(tableClass.getTableName());
+                        try {
+                            long id = executeUpsert(table, tableClass, getConflictColumns(table, conflictColumns));
+                            if (id > 0) {
+                                tableClass._id = id;
+                                takeSnapshot(table, tableClass);
+                                upsertedCount[0]++;
+                            }
+                        } catch (SQLException e) {
+                            Log.e(TAG, "upsertAll skip row:", e);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        closeDatabase();
+
+        return upsertedCount[0];
+    }
+
+
+    public <T extends TableClass> boolean update(String tableName, Class<T> clazz,  ContentValues contentValues, String whereClause, String[] whereClauseArgs){
+        if(TextUtils.isEmpty(tableName)){
+            tableName = clazz.getSimpleName();
+        }
+        long affectedRows = -1;
+        try {
+            SQLiteDatabase database = getDatabase(false);
+
+            affectedRows = database.update(tableName, contentValues, whereClause, whereClauseArgs);
+
+            closeDatabase();
+
+            if(affectedRows <= 0){
+                return false;
+            }
+        } catch (SQLException e){
+            return false;
+        }
+        return true;
+    }
+
+
+
+        //delete
+    private boolean delete(TableClass tableClass) {
+        if(tableClass._id > 0) {
+            try {
+                SQLiteDatabase database = getDatabase(false);
+
+                Table table = tableMap.get(tableClass.getTableName());
+
+                int affectedRows;
+
+                if(table.isSoftDeleteEnabled){
+                    ContentValues contentValues = new ContentValues();
+                    contentValues.put(DELETED_AT, System.currentTimeMillis());
+                    affectedRows = database.update(tableClass.getTableName(), contentValues, ID+"=?",
+                            new String[]{Long.toString(tableClass._id)});
+                } else {
+                    affectedRows = database.delete(tableClass.getTableName(), ID + "=?",
+                            new String[]{Long.toString(tableClass._id)});
+                }
+
+                closeDatabase();
+
+                if(affectedRows <= 0){
+                    return false;
+                }
+            } catch (SQLException e){
+                return false;
+            }
+
+            return true;
+        }
+        return false;
+    }
+
+
+    public <T extends TableClass> void delete(String tableName, Class<T> clazz,  String whereClause, String[] whereClauseArgs){
+        if(TextUtils.isEmpty(tableName)){
+            tableName = clazz.getSimpleName();
+        }
+        try {
+            SQLiteDatabase database = getDatabase(false);
+
+            Table table = tableMap.get(tableName);
+            if(table.isSoftDeleteEnabled){
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(DELETED_AT, System.currentTimeMillis());
+                database.update(tableName, contentValues, whereClause, whereClauseArgs);
+            } else {
+                database.delete(tableName, whereClause, whereClauseArgs);
+            }
+            closeDatabase();
+        } catch (SQLException e){
+            e.printStackTrace();
+        }
+    }
+
+
+    //bulk delete by _id, return number of deleted rows
+    public <T extends TableClass> int deleteByIds(String tableName, Class<T> clazz, long[] ids) {
+        if(TextUtils.isEmpty(tableName)){
+            tableName = clazz.getSimpleName();
+        }
+        if(ids == null || ids.length == 0) return 0;
+
+        final String deleteTableName = tableName;
+        final long[] deleteIds = ids;
+        try {
+            //all chunks or none, a failure inside the transaction of the calling thread fails that transaction
+            int deletedCount = inTransaction(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    SQLiteDatabase database = getDatabase(false);
+                    Table table = tableMap.get(deleteTableName);
+
+                    int deletedCount = 0;
+                    for (int start = 0; start < deleteIds.length; start += batchChunkSize) {
+                        int end = Math.min(start + batchChunkSize, deleteIds.length);
+
+                        //ids are numbers, so inline them to avoid sqlite variable limit
+                        StringBuilder whereClause = new StringBuilder(ID).append(" IN (");
+                        for (int i = start; i < end; i++) {
+                            if(i > start) whereClause.append(",");
+                            whereClause.append(deleteIds[i]);
+                        }
+                        whereClause.append(")");
+
+                        if(table.isSoftDeleteEnabled){
+                            ContentValues contentValues = new ContentValues();
+                            contentValues.put(DELETED_AT, System.currentTimeMillis());
+                            deletedCount += database.update(deleteTableName, contentValues, whereClause.toString(), null);
+                        } else {
+                            deletedCount += database.delete(deleteTableName, whereClause.toString(), null);
+                        }
+                    }
+                    return deletedCount;
+                }
+            });
+            closeDatabase();
+            return deletedCount;
+        } catch (SQLException e){
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+
+    //bytes between position and limit, without moving the buffer position
+    public static byte[] toBlob(ByteBuffer byteBuffer){
+        if(byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0 && byteBuffer.position() == 0
+                && byteBuffer.remaining() == byteBuffer.array().length){
+            return byteBuffer.array();
+        }
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+
+    //length in bytes of a blob column, -1 when the row is not found or the value is null
+    public long getBlobLength(String tableName, String columnName, long id) {
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase database = getDatabase(true);
+            cursor = database.rawQuery("select length(" + columnName + ") from " + tableName + " where " + ID + "=?",
+                    new String[]{String.valueOf(id)});
+            if(cursor.moveToFirst() && !cursor.isNull(0)){
+                return cursor.getLong(0);
+            }
+        } catch (SQLException e){
+            e.printStackTrace();
+        } finally {
+            closeCursor(cursor);
+            closeDatabase();
+        }
+        return -1;
+    }
+
+    //one slice of a blob column, offset is zero based
+    private byte[] readBlobChunk(String tableName, String columnName, long id, long offset, int length) {
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase database = getDatabase(true);
+            cursor = database.rawQuery("select substr(" + columnName + "," + (offset + 1) + "," + length + ") from "
+                    + tableName + " where " + ID + "=?", new String[]{String.valueOf(id)});
+            if(cursor.moveToFirst() && !cursor.isNull(0)){
+                return cursor.getBlob(0);
+            }
+        } catch (SQLException e){
+            e.printStackTrace();
+        } finally {
+            closeCursor(cursor);
+            closeDatabase();
+        }
+        return null;
+    }
+
+    /**
+     * stream a blob column in chunks of DEFAULT_BLOB_CHUNK_SIZE, so a large value never has to fit in one CursorWindow.
+     * return null when the row is not found or the value is null
+     */
+    public InputStream openBlob(String tableName, String columnName, long id) {
+        return openBlob(tableName, columnName, id, DEFAULT_BLOB_CHUNK_SIZE);
+    }
+
+    public InputStream openBlob(String tableName, String columnName, long id, int chunkSize) {
+        long length = getBlobLength(tableName, columnName, id);
+        if(length < 0) return null;
+        return new BlobInputStream(this, tableName, columnName, id, length, chunkSize);
+    }
+
+    public boolean readBlob(String tableName, String columnName, long id, OutputStream outputStream) {
+        InputStream inputStream = openBlob(tableName, columnName, id);
+        if(inputStream == null) return false;
+        try {
+            byte[] buffer = new byte[DEFAULT_BLOB_CHUNK_SIZE];
+            int readCount;
+            while ((readCount = inputStream.read(buffer)) != -1){
+                outputStream.write(buffer, 0, readCount);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Read blob IOException:", e);
+            return false;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Read blob IOException:", e);
+            }
+        }
+    }
+
+    /**
+     * replace a blob column with the content of inputStream inside one transaction, the whole value never has to be
+     * held in java memory. return false when the row is not found
+     */
+    public boolean writeBlob(String tableName, String columnName, long id, InputStream inputStream) {
+        return writeBlob(tableName, columnName, id, inputStream, DEFAULT_BLOB_CHUNK_SIZE);
+    }
+
+    /**
+     * sql can not write into part of a blob, every update rewrites the whole value. appending each chunk to the
+     * column would rewrite it once per chunk, so chunks are staged as rows of a temp table and merged pairwise:
+     * every round rewrites the value once, log2(chunk count) rounds in total
+     */
+    public boolean writeBlob(final String tableName, final String columnName, final long id, final InputStream inputStream,
+                             final int chunkSize) {
+        try {
+            //a failure after the first chunk fails the transaction of the calling thread too, no half written value
+            return inTransaction(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    SQLiteStatement resetStatement = getCompiledStatement("BLOB_RESET|" + tableName + "|" + columnName,
+                            "update " + tableName + " set " + columnName + "=zeroblob(0) where " + ID + "=?");
+                    synchronized (resetStatement) {
+                        resetStatement.bindLong(1, id);
+                        if(resetStatement.executeUpdateDelete() == 0){
+                            return false;
+                        }
+                    }
+
+                    SQLiteDatabase database = getDatabase(false);
+                    //temp table lives on the write connection, the one holding this transaction
+                    database.execSQL("create temp table if not exists " + BLOB_CHUNK_TABLE
+                            + " (chunk_index integer primary key, data blob)");
+                    database.execSQL("delete from temp." + BLOB_CHUNK_TABLE);
+                    try {
+                        int chunkCount = stageBlobChunks(inputStream, chunkSize);
+                        if(chunkCount == 0) return true;
+                        mergeBlobChunks(chunkCount);
+
+                        SQLiteStatement setStatement = getCompiledStatement("BLOB_SET|" + tableName + "|" + columnName,
+                                "update " + tableName + " set " + columnName + "=(select data from temp." + BLOB_CHUNK_TABLE
+                                        + " where chunk_index=0) where " + ID + "=?");
+                        synchronized (setStatement) {
+                            setStatement.bindLong(1, id);
+                            setStatement.executeUpdateDelete();
+                        }
+                        return true;
+                    } finally {
+                        database.execSQL("delete from temp." + BLOB_CHUNK_TABLE);
+                    }
+                }
+            });
+        } catch (SQLException e){
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            if(!(e.getCause() instanceof IOException)) throw e;
+            Log.e(TAG, "Write blob IOException:", e.getCause());
+        } finally {
+            closeDatabase();
+        }
+        return false;
+    }
+
+    //insert the stream as numbered chunk rows, return the chunk count
+    private int stageBlobChunks(InputStream inputStream, int chunkSize) throws IOException {
+        SQLiteStatement insertStatement = getCompiledStatement("BLOB_CHUNK_INSERT",
+                "insert into temp." + BLOB_CHUNK_TABLE + " (chunk_index, data) values (?, ?)");
+        byte[] buffer = new byte[chunkSize];
+        int chunkCount = 0;
+        int readCount;
+        while ((readCount = readFully(inputStream, buffer)) > 0){
+            synchronized (insertStatement) {
+                insertStatement.bindLong(1, chunkCount++);
+                insertStatement.bindBlob(2, readCount == buffer.length ? buffer : Arrays.copyOf(buffer, readCount));
+                insertStatement.executeInsert();
+            }
+        }
+        return chunkCount;
+    }
+
+    //round with step s appends chunk i+s to chunk i for every i divisible by 2s, the whole value ends in chunk 0
+    private void mergeBlobChunks(int chunkCount){
+        //|| works on text, cast keeps the stored value a blob
+        SQLiteStatement mergeStatement = getCompiledStatement("BLOB_CHUNK_MERGE",
+                "update temp." + BLOB_CHUNK_TABLE + " set data=cast(data || (select chunk.data from temp." + BLOB_CHUNK_TABLE
+                        + " chunk where chunk.chunk_index=" + BLOB_CHUNK_TABLE + ".chunk_index+?1) as blob)"
+                        + " where chunk_index % ?2 = 0 and chunk_index+?1 < ?3");
+        SQLiteStatement deleteStatement = getCompiledStatement("BLOB_CHUNK_DELETE",
+                "delete from temp." + BLOB_CHUNK_TABLE + " where chunk_index % ?1 = ?2");
+        for (long step = 1; step < chunkCount; step *= 2) {
+            synchronized (mergeStatement) {
+                mergeStatement.bindLong(1, step);
+                mergeStatement.bindLong(2, step * 2);
+                mergeStatement.bindLong(3, chunkCount);
+                mergeStatement.executeUpdateDelete();
+            }
+            synchronized (deleteStatement) {
+                deleteStatement.bindLong(1, step * 2);
+                deleteStatement.bindLong(2, step);
+                deleteStatement.executeUpdateDelete();
+            }
+        }
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length){
+            int readCount = inputStream.read(buffer, total, buffer.length - total);
+            if(readCount == -1) break;
+            total += readCount;
+        }
+        return total;
+    }
+
+
+    public <T extends TableClass> void deleteAll(String tableName, Class<T> clazz) {
+        if(TextUtils.isEmpty(tableName)){
+            tableName = clazz.getSimpleName();
+        }
+        delete(tableName, clazz, null, null);
+    }
+
+
 
 
-        //delete
-    private boolean delete(TableClass tableClass) {
-        if(tableClass._id > 0) {
-            try {
-                SQLiteDatabase database = getDatabase(false);
+    //create instance of table class, registered factory first (generated by processor) then reflection
+    public interface Factory<T extends TableClass> {
+        T create();
+    }
 
-                Table table = tableMap.get(tableClass.getTableName());
+    public static <T extends TableClass> void registerFactory(Class<T> clazz, Factory<T> factory){
+        factoryMap.put(clazz, factory);
+    }
 
-                int affectedRows;
+    @SuppressWarnings("unchecked")
+    private static <T extends TableClass> T newInstance(Class<T> clazz) throws InstantiationException, IllegalAccessException {
+        Factory<T> factory = factoryMap.get(clazz);
+        if(factory != null){
+            return factory.create();
+        }
+        return clazz.newInstance();
+    }
 
-                if(table.isSoftDeleteEnabled){
-                    ContentValues contentValues = new ContentValues();
-                    contentValues.put(DELETED_AT, System.currentTimeMillis());
-                    affectedRows = database.update(tableClass.getTableName(), contentValues, ID+"=?",
-                            new String[]{Long.toString(tableClass._id)});
-                } else {
-                    affectedRows = database.delete(tableClass.getTableName(), ID + "=?",
-                            new String[]{Long.toString(tableClass._id)});
-                }
+    private RuntimeException getWarningWhenNoConstructorWithNoArgument(String className){
+        return new RuntimeException(String.format(
+                "Class %s must has constructor with no argument",className));
+    }
 
-                closeDatabase();
+    public <T extends TableClass> T findById(long id, String tableName, Class<T> clazz){
+        try {
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+            SQLiteDatabase database = getDatabase(true);
 
-                if(affectedRows <= 0){
-                    return false;
+            Table table = tableMap.get(tableName);
+
+            String sql = "SELECT * FROM "+tableName+" WHERE "+ID+"=?";
+
+            if(table.isSoftDeleteEnabled){
+                sql += " AND "+DELETED_AT+" IS NULL";
+            }
+
+            Cursor cursor = database.rawQuery(sql, new String[]{Long.toString(id)});
+
+            T tableClass = null;
+
+            if(cursor != null) {
+                List<T> resultList = fetchObjectList(cursor, table, clazz, new IdentityMap());
+                if(resultList.size() > 0) {
+                    tableClass = resultList.get(0);
                 }
-            } catch (SQLException e){
-                return false;
+
+                closeCursor(cursor);
             }
 
-            return true;
+            closeDatabase();
+
+            return tableClass;
+        } catch (SQLException e){
+            return null;
+        } catch (InstantiationException e){
+            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
+        } catch (IllegalAccessException e){
+            return null;
         }
-        return false;
     }
 
 
-    public <T extends TableClass> void delete(String tableName, Class<T> clazz,  String whereClause, String[] whereClauseArgs){
-        if(TextUtils.isEmpty(tableName)){
-            tableName = clazz.getSimpleName();
-        }
+    public <T extends TableClass> List<T> findAll(String tableName, Class<T> clazz){
+        return findAll(tableName, clazz, null, null, null);
+    }
+    public <T extends TableClass> List<T> findAll(String tableName, Class<T> clazz, String orderBy, String limit, String offset) {
+        return findAll(tableName, clazz, null, orderBy, limit, offset);
+    }
+
+    //columns is the projection, only those fields are read and the rest keep their default value. update() of the
+    //objects writes only the selected columns, dirty tracking writes the other fields only when they are changed
+    public <T extends TableClass> List<T> findAll(String tableName, Class<T> clazz, String[] columns, String orderBy, String limit, String offset) {
+        return findAll(tableName, clazz, columns, orderBy, limit, offset, null);
+    }
+
+    private <T extends TableClass> List<T> findAll(String tableName, Class<T> clazz, String[] columns, String orderBy, String limit, String offset,
+                                                   CancellationSignal cancellationSignal) {
         try {
-            SQLiteDatabase database = getDatabase(false);
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+
+            SQLiteDatabase database = getDatabase(true);
 
             Table table = tableMap.get(tableName);
+
+            String sql = "SELECT " + getProjection(table, columns) + " FROM " + tableName;
+
             if(table.isSoftDeleteEnabled){
-                ContentValues contentValues = new ContentValues();
-                contentValues.put(DELETED_AT, System.currentTimeMillis());
-                database.update(tableName, contentValues, whereClause, whereClauseArgs);
-            } else {
-                database.delete(tableName, whereClause, whereClauseArgs);
+                sql += " WHERE "+DELETED_AT+" IS NULL";
+            }
+
+            if(!TextUtils.isEmpty(orderBy)){
+                sql += " order by "+orderBy;
+            }
+
+            if(!TextUtils.isEmpty(limit)){
+                sql += " limit "+limit;
+            }
+
+            if(!TextUtils.isEmpty(offset)){
+                sql += " offset "+offset;
+            }
+
+            Cursor cursor = database.rawQuery(sql, null, cancellationSignal);
+
+            List<T> resultList = new ArrayList<>();
+
+            if(cursor != null) {
+                resultList = fetchObjectList(cursor, table, clazz, new IdentityMap());
+
+                closeCursor(cursor);
             }
             closeDatabase();
+
+            return resultList;
         } catch (SQLException e){
-            e.printStackTrace();
+            return null;
+        } catch (InstantiationException e){
+            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
+        } catch (IllegalAccessException e){
+            return null;
         }
     }
 
+    //_id and record log are always selected, update of the object writes only the selected columns
+    private String getProjection(Table table, String[] columns){
+        if(columns == null || columns.length == 0) return "*";
 
-    public <T extends TableClass> void deleteAll(String tableName, Class<T> clazz) {
+        List<String> columnList = new ArrayList<>();
+        columnList.add(ID);
+        if(table.isRecordLogEnabled){
+            columnList.add(CREATED_AT);
+            columnList.add(UPDATED_AT);
+        }
+        for (String column : columns){
+            if(!columnList.contains(column)){
+                columnList.add(column);
+            }
+        }
+        return TextUtils.join(",", columnList);
+    }
+
+    public <T extends TableClass> T findFirst(String tableName, Class<T> clazz) {
+        List<T> resultList = selectQuery(false,tableName,clazz,null,null,null,
+                null,null,ID+" ASC","1");
+        if(resultList != null && resultList.size() > 0){
+            return resultList.get(0);
+        }
+        return  null;
+    }
+
+    public <T extends TableClass> T findLast(String tableName, Class<T> clazz) {
+        List<T> resultList = selectQuery(false,tableName,clazz,null,null,null,
+                null,null,ID+" DESC","1");
+        if(resultList != null && resultList.size() > 0){
+            return resultList.get(resultList.size()-1);
+        }
+        return  null;
+    }
+
+    public <T extends TableClass> List<T> findAllWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs){
+        return findAllWithCriteria(tableName, clazz, whereClause, whereClauseArgs, null, null, null);
+    }
+    public <T extends TableClass> List<T> findAllWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs, String orderBy, String limit, String offset) {
+        return findAllWithCriteria(tableName, clazz, null, whereClause, whereClauseArgs, orderBy, limit, offset);
+    }
+
+    //columns is the projection, only those fields are read and the rest keep their default value. update() of the
+    //objects writes only the selected columns, dirty tracking writes the other fields only when they are changed
+    public <T extends TableClass> List<T> findAllWithCriteria(String tableName, Class<T> clazz, String[] columns, String whereClause, String[] whereClauseArgs, String orderBy, String limit, String offset) {
+        return findAllWithCriteria(tableName, clazz, columns, whereClause, whereClauseArgs, orderBy, limit, offset, null);
+    }
+
+    private <T extends TableClass> List<T> findAllWithCriteria(String tableName, Class<T> clazz, String[] columns, String whereClause, String[] whereClauseArgs,
+                                                               String orderBy, String limit, String offset, CancellationSignal cancellationSignal) {
+        try {
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+
+            SQLiteDatabase database = getDatabase(true);
+
+            Table table = tableMap.get(tableName);
+
+            String sql = "SELECT " + getProjection(table, columns) + " FROM " + tableName + " WHERE ("+whereClause+")";
+
+            if(table.isSoftDeleteEnabled){
+                sql += " AND "+DELETED_AT+" IS NULL";
+            }
+
+            if(!TextUtils.isEmpty(orderBy)){
+                sql += " order by "+orderBy;
+            }
+
+            if(!TextUtils.isEmpty(limit)){
+                sql += " limit "+limit;
+            }
+
+            if(!TextUtils.isEmpty(offset)){
+                sql += " offset "+offset;
+            }
+
+            Cursor cursor = database.rawQuery(sql, whereClauseArgs, cancellationSignal);
+
+            List<T> resultList = new ArrayList<>();
+
+            if(cursor != null) {
+                resultList = fetchObjectList(cursor, table, clazz, new IdentityMap());
+
+                closeCursor(cursor);
+            }
+            closeDatabase();
+
+            return resultList;
+        } catch (SQLException e){
+            return null;
+        } catch (InstantiationException e){
+            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
+        } catch (IllegalAccessException e){
+            return null;
+        }
+    }
+
+    //cursor stay open and rows are hydrated when accessed, close the result when done
+    public <T extends TableClass> LazyResult<T> findAllLazy(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs, String orderBy) {
         if(TextUtils.isEmpty(tableName)){
             tableName = clazz.getSimpleName();
         }
-        delete(tableName, clazz, null, null);
+
+        Table table = tableMap.get(tableName);
+
+        String sql = "SELECT * FROM " + tableName;
+
+        List<String> conditionList = new ArrayList<>();
+        if(!TextUtils.isEmpty(whereClause)){
+            conditionList.add("(" + whereClause + ")");
+        }
+        if(table.isSoftDeleteEnabled){
+            conditionList.add(DELETED_AT + " IS NULL");
+        }
+        if(conditionList.size() > 0){
+            sql += " WHERE " + TextUtils.join(" AND ", conditionList);
+        }
+
+        if(!TextUtils.isEmpty(orderBy)){
+            sql += " order by "+orderBy;
+        }
+
+        return rawSelectQueryLazy(table, clazz, sql, whereClauseArgs);
+    }
+
+    public <T extends TableClass> LazyResult<T> rawSelectQueryLazy(Class<T> clazz, String selectSql, String[] sqlArgs) {
+        String tableName = substringBetween(" from "," ", selectSql.replace("FROM","from")+" ");
+        return rawSelectQueryLazy(tableMap.get(tableName), clazz, selectSql, sqlArgs);
     }
 
+    private <T extends TableClass> LazyResult<T> rawSelectQueryLazy(Table table, Class<T> clazz, String selectSql, String[] sqlArgs) {
+        try {
+            SQLiteDatabase database = getDatabase(true);
+
+            Cursor cursor = database.rawQuery(selectSql, sqlArgs);
 
+            closeDatabase();
 
+            if(cursor == null) return null;
 
-    private RuntimeException getWarningWhenNoConstructorWithNoArgument(String className){
-        return new RuntimeException(String.format(
-                "Class %s must has constructor with no argument",className));
+            return new LazyResult<>(this, cursor, table, clazz);
+        } catch (SQLException e){
+            return null;
+        }
+    }
+
+
+    public interface RowConsumer<T extends TableClass> {
+        //return false to stop the iteration
+        boolean onRow(T row);
+    }
+
+    public <T extends TableClass> void forEach(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs,
+                                               boolean reuseObject, RowConsumer<T> rowConsumer) {
+        forEach(tableName, clazz, whereClause, whereClauseArgs, reuseObject, DEFAULT_FOREACH_CHUNK_SIZE, rowConsumer);
+    }
+
+    /**
+     * walk the rows in _id order without keeping them, each chunk is a separate "_id > last" query
+     * so only chunkSize rows are in the cursor window at a time.
+     * with reuseObject the same instance is filled for every row, don't keep reference to it
+     */
+    public <T extends TableClass> void forEach(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs,
+                                               boolean reuseObject, int chunkSize, RowConsumer<T> rowConsumer) {
+        if(TextUtils.isEmpty(tableName)){
+            tableName = clazz.getSimpleName();
+        }
+        try {
+            SQLiteDatabase database = getDatabase(true);
+
+            Table table = tableMap.get(tableName);
+
+            String sql = "SELECT * FROM " + tableName + " WHERE " + ID + ">?";
+            if(!TextUtils.isEmpty(whereClause)){
+                sql += " AND (" + whereClause + ")";
+            }
+            if(table.isSoftDeleteEnabled){
+                sql += " AND " + DELETED_AT + " IS NULL";
+            }
+            sql += " order by " + ID + " limit " + chunkSize;
+
+            String[] sqlArgs = new String[(whereClauseArgs == null ? 0 : whereClauseArgs.length) + 1];
+            if(whereClauseArgs != null){
+                System.arraycopy(whereClauseArgs, 0, sqlArgs, 1, whereClauseArgs.length);
+            }
+
+            IdentityMap identityMap = new IdentityMap();
+            List<Reference<?>> referenceList = new ArrayList<>();
+            T reusedTableClass = null;
+            long lastId = Long.MIN_VALUE;
+            boolean isRunning = true;
+
+            while (isRunning) {
+                sqlArgs[0] = Long.toString(lastId);
+                Cursor cursor = database.rawQuery(sql, sqlArgs);
+                if(cursor == null) break;
+
+                int rowCount = 0;
+                try {
+                    CursorShape cursorShape = getCursorShape(cursor, table);
+                    while (isRunning && cursor.moveToNext()) {
+                        T tableClass;
+                        if(reuseObject){
+                            if(reusedTableClass == null){
+                                reusedTableClass = newInstance(clazz);
+                            }
+                            tableClass = reusedTableClass;
+                        } else {
+                            tableClass = newInstance(clazz);
+                        }
+
+                        fetchCurrentObject(cursor, table, tableClass, cursorShape, identityMap, referenceList);
+                        lastId = tableClass._id;
+                        rowCount++;
+
+                        isRunning = rowConsumer.onRow(tableClass);
+                    }
+                } finally {
+                    closeCursor(cursor);
+                }
+
+                if(rowCount < chunkSize){
+                    isRunning = false;
+                }
+            }
+            closeDatabase();
+        } catch (SQLException e){
+            e.printStackTrace();
+        } catch (InstantiationException e){
+            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
+        } catch (IllegalAccessException e){
+            e.printStackTrace();
+        }
     }
 
-    public <T extends TableClass> T findById(long id, String tableName, Class<T> clazz){
+
+    /**
+     * keyset pagination, the page continue after the last row of previous page instead of skipping offset rows.
+     * orderColumn can be null to page on _id only, otherwise it must be a column of the table, better an indexed one
+     * (INTEGER or TEXT, REAL values lose precision inside the token). rows with NULL in orderColumn come first in
+     * ascending order and last in descending order, same as sqlite sorts them. pageToken is null for the first page
+     */
+    public <T extends TableClass> Page<T> findPage(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs,
+                                                   String orderColumn, boolean isDescending, int pageSize, PageToken pageToken) {
+        if(pageSize <= 0){
+            throw new IllegalArgumentException("page size must be greater than 0");
+        }
         try {
             if(TextUtils.isEmpty(tableName)){
                 tableName = clazz.getSimpleName();
             }
-            SQLiteDatabase database = getDatabase(true);
 
             Table table = tableMap.get(tableName);
+            if(!TextUtils.isEmpty(orderColumn) && !isColumnOf(table, orderColumn)){
+                throw new IllegalArgumentException(String.format("Order column %s is not a column of table %s", orderColumn, tableName));
+            }
 
-            String sql = "SELECT * FROM "+tableName+" WHERE "+ID+"=?";
+            SQLiteDatabase database = getDatabase(true);
+
+            String comparator = isDescending ? "<" : ">";
+            String direction = isDescending ? " DESC" : " ASC";
 
+            List<String> conditionList = new ArrayList<>();
+            List<String> argList = new ArrayList<>();
+            if(!TextUtils.isEmpty(whereClause)){
+                conditionList.add("(" + whereClause + ")");
+                if(whereClauseArgs != null){
+                    argList.addAll(Arrays.asList(whereClauseArgs));
+                }
+            }
             if(table.isSoftDeleteEnabled){
-                sql += " AND "+DELETED_AT+" IS NULL";
+                conditionList.add(DELETED_AT + " IS NULL");
+            }
+            if(pageToken != null){
+                if(TextUtils.isEmpty(orderColumn)){
+                    conditionList.add(ID + comparator + "?");
+                } else if(pageToken.orderValue == null){
+                    //NULL rows come first in ascending order, so every not null row is after them
+                    conditionList.add("(" + orderColumn + " IS NULL AND " + ID + comparator + "?"
+                            + (isDescending ? ")" : " OR " + orderColumn + " IS NOT NULL)"));
+                } else {
+                    //expanded form of (col, _id) > (?, ?), row values need sqlite 3.15. NULL rows come last in descending order
+                    conditionList.add("(" + orderColumn + comparator + "? OR (" + orderColumn + "=? AND " + ID + comparator + "?)"
+                            + (isDescending ? " OR " + orderColumn + " IS NULL)" : ")"));
+                    argList.add(pageToken.orderValue);
+                    argList.add(pageToken.orderValue);
+                }
+                argList.add(Long.toString(pageToken.lastId));
             }
 
-            Cursor cursor = database.rawQuery(sql, new String[]{Long.toString(id)});
+            String sql = "SELECT * FROM " + tableName;
+            if(conditionList.size() > 0){
+                sql += " WHERE " + TextUtils.join(" AND ", conditionList);
+            }
+            if(TextUtils.isEmpty(orderColumn)){
+                sql += " order by " + ID + direction;
+            } else {
+                sql += " order by " + orderColumn + direction + ", " + ID + direction;
+            }
+            //one extra row tell whether there is a next page
+            sql += " limit " + (pageSize + 1);
 
-            T tableClass = null;
+            Cursor cursor = database.rawQuery(sql, argList.toArray(new String[argList.size()]));
 
-            if(cursor != null) {
-                cursor.moveToFirst();
+            List<T> resultList = new ArrayList<>();
+            PageToken nextPageToken = null;
 
-                List<Object> dataList = fetchRow(cursor, tableName);
+            if(cursor != null) {
+                resultList = fetchObjectList(cursor, table, clazz, new IdentityMap());
 
-                tableClass = clazz.newInstance();
-                tableClass._id = cursor.getLong(cursor.getColumnIndex(ID));
-                tableClass.setObjectData(dataList);
+                if(resultList.size() > pageSize){
+                    resultList.remove(pageSize);
 
-                fetchRecordLog(table, tableClass, cursor);
+                    T lastTableClass = resultList.get(pageSize - 1);
+                    String orderValue = null;
+                    if(!TextUtils.isEmpty(orderColumn)){
+                        cursor.moveToPosition(pageSize - 1);
+                        int orderIndex = cursor.getColumnIndexOrThrow(orderColumn);
+                        orderValue = cursor.isNull(orderIndex) ? null : cursor.getString(orderIndex);
+                    }
+                    nextPageToken = new PageToken(orderValue, lastTableClass._id);
+                }
 
                 closeCursor(cursor);
             }
-
             closeDatabase();
 
-            return tableClass;
+            return new Page<>(this, new PageQuery<>(tableName, clazz, whereClause, whereClauseArgs, orderColumn, isDescending, pageSize),
+                    resultList, nextPageToken);
         } catch (SQLException e){
             return null;
         } catch (InstantiationException e){
@@ -682,11 +2606,45 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         }
     }
 
+    private static boolean isColumnOf(Table table, String columnName){
+        if(ID.equals(columnName)) return true;
+        if(table.isRecordLogEnabled && (CREATED_AT.equals(columnName) || UPDATED_AT.equals(columnName))) return true;
+        for (Field field : table.getFieldList()){
+            if(field.getName().equals(columnName)) return true;
+        }
+        return false;
+    }
+
+    private synchronized ExecutorService getPrefetchExecutor(){
+        if(prefetchExecutor == null){
+            prefetchExecutor = Executors.newSingleThreadExecutor();
+        }
+        return prefetchExecutor;
+    }
+
 
-    public <T extends TableClass> List<T> findAll(String tableName, Class<T> clazz){
-        return findAll(tableName, clazz, null, null, null);
+    public <T extends TableClass> T findFirstWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs) {
+        List<T> resultList = selectQuery(false,tableName,clazz,null,whereClause,whereClauseArgs,
+                null,null,ID+" ASC","1");
+        if(resultList != null && resultList.size() > 0){
+            return resultList.get(0);
+        }
+        return  null;
     }
-    public <T extends TableClass> List<T> findAll(String tableName, Class<T> clazz, String orderBy, String limit, String offset) {
+
+    public <T extends TableClass> T findLastWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs) {
+        List<T> resultList = selectQuery(false,tableName,clazz,null,whereClause,whereClauseArgs,
+                null,null,ID+" DESC","1");
+        if(resultList != null && resultList.size() > 0){
+            return resultList.get(resultList.size()-1);
+        }
+        return  null;
+    }
+
+
+    public <T extends TableClass> List<T> selectQuery(boolean distinct, String tableName, Class<T> clazz, String[] columns,
+                                            String selection, String[] selectionArgs, String groupBy,
+                                            String having, String orderBy, String limit) {
         try {
             if(TextUtils.isEmpty(tableName)){
                 tableName = clazz.getSimpleName();
@@ -696,44 +2654,53 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
 
             Table table = tableMap.get(tableName);
 
-            String sql = "SELECT * FROM " + tableName;
-
             if(table.isSoftDeleteEnabled){
-                sql += " WHERE "+DELETED_AT+" IS NULL";
+                if(TextUtils.isEmpty(selection)){
+                    selection = DELETED_AT+" IS NULL";
+                } else {
+                    selection = "("+selection+") AND "+DELETED_AT+" IS NULL";
+                }
             }
 
-            if(!TextUtils.isEmpty(orderBy)){
-                sql += " order by "+orderBy;
-            }
+            Cursor cursor = database.query(distinct, tableName, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
 
-            if(!TextUtils.isEmpty(limit)){
-                sql += " limit "+limit;
-            }
+            List<T> resultList = new ArrayList<>();
 
-            if(!TextUtils.isEmpty(offset)){
-                sql += " offset "+offset;
+            if(cursor != null) {
+                resultList = fetchObjectList(cursor, table, clazz, new IdentityMap());
+
+                closeCursor(cursor);
             }
+            closeDatabase();
 
-            Cursor cursor = database.rawQuery(sql, null);
+            return resultList;
+        } catch (SQLException e){
+            return null;
+        } catch (InstantiationException e){
+            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
+        } catch (IllegalAccessException e){
+            return null;
+        }
+    }
 
-            List<T> resultList = new ArrayList<>();
 
-            if(cursor != null) {
-                cursor.moveToFirst();
+    public <T extends TableClass> List<T> rawSelectQuery(Class<T> clazz, String selectSql, String[] sqlArgs) {
+        return rawSelectQuery(clazz, selectSql, sqlArgs, null);
+    }
 
-                while (!cursor.isAfterLast()) {
-                    List<Object> dataList = fetchRow(cursor, tableName);
+    private <T extends TableClass> List<T> rawSelectQuery(Class<T> clazz, String selectSql, String[] sqlArgs, CancellationSignal cancellationSignal) {
+        try {
+            String tableName = substringBetween(" from "," ", selectSql.replace("FROM","from")+" ");
 
-                    T tableClass = clazz.newInstance();
-                    tableClass._id = cursor.getLong(cursor.getColumnIndex(ID));
-                    tableClass.setObjectData(dataList);
+            SQLiteDatabase database = getDatabase(true);
 
-                    fetchRecordLog(table, tableClass, cursor);
+            Cursor cursor = database.rawQuery(selectSql, sqlArgs, cancellationSignal);
 
-                    resultList.add(tableClass);
+            List<T> resultList = new ArrayList<>();
 
-                    cursor.moveToNext();
-                }
+            if(cursor != null) {
+                Table table = tableMap.get(tableName);
+                resultList = fetchObjectList(cursor, table, clazz, new IdentityMap());
 
                 closeCursor(cursor);
             }
@@ -749,268 +2716,882 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         }
     }
 
-    public <T extends TableClass> T findFirst(String tableName, Class<T> clazz) {
-        List<T> resultList = selectQuery(false,tableName,clazz,null,null,null,
-                null,null,ID+" ASC","1");
-        if(resultList != null && resultList.size() > 0){
-            return resultList.get(0);
+
+    public <T extends TableClass> long count(String tableName, Class<T> clazz, String selection,
+                                            String[] selectionArgs){
+        if(TextUtils.isEmpty(tableName)){
+            tableName = clazz.getSimpleName();
         }
-        return  null;
+        SQLiteDatabase database = getDatabase(true);
+        long count = DatabaseUtils.queryNumEntries(database, tableName, selection, selectionArgs);
+        closeDatabase();
+        return count;
     }
 
-    public <T extends TableClass> T findLast(String tableName, Class<T> clazz) {
-        List<T> resultList = selectQuery(false,tableName,clazz,null,null,null,
-                null,null,ID+" DESC","1");
-        if(resultList != null && resultList.size() > 0){
-            return resultList.get(resultList.size()-1);
+
+    public void execSQL(String sql, String[] sqlArgs) {
+        try {
+            SQLiteDatabase database = getDatabase(false);
+            if(sqlArgs == null){
+                sqlArgs = new String[]{};
+            }
+            database.execSQL(sql, sqlArgs);
+            closeDatabase();
+        } catch (SQLException e){
+            e.printStackTrace();
         }
-        return  null;
     }
 
-    public <T extends TableClass> List<T> findAllWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs){
-        return findAllWithCriteria(tableName, clazz, whereClause, whereClauseArgs, null, null, null);
+    private SQLiteDatabase getDatabase(boolean isReadOnly){
+        if(isReadOnly){
+            return getReadableDatabase();
+        } else {
+            return getWritableDatabase();
+        }
     }
-    public <T extends TableClass> List<T> findAllWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs, String orderBy, String limit, String offset) {
+
+    private void closeDatabase(){
+        //close(); //no need to call this, this will
+        // make "java.lang.IllegalStateException:
+        // Cannot perform this operation because the connection pool has been closed."
+        // when access in multiple thread
+
+        //database connection is singleton, life cycle scope is entire application
+    }
+
+    private void closeCursor(Cursor cursor){
+        if(cursor != null && !cursor.isClosed()){
+            cursor.close();
+        }
+    }
+
+    public static class MemoryMapStats {
+        private long requestedBytes;
+        private long effectiveBytes;
+        private long databaseFileBytes;
+
+        private MemoryMapStats(long requestedBytes, long effectiveBytes, long databaseFileBytes) {
+            this.requestedBytes = requestedBytes;
+            this.effectiveBytes = effectiveBytes;
+            this.databaseFileBytes = databaseFileBytes;
+        }
+
+        //-1 when no mmap size is set
+        public long getRequestedBytes() {
+            return requestedBytes;
+        }
+
+        //0 when the platform disables memory mapped I/O
+        public long getEffectiveBytes() {
+            return effectiveBytes;
+        }
+
+        public long getDatabaseFileBytes() {
+            return databaseFileBytes;
+        }
+
+        public boolean isActive() {
+            return effectiveBytes > 0;
+        }
+
+        public long getMappedBytes() {
+            return Math.min(effectiveBytes, databaseFileBytes);
+        }
+
+        public long getReadPathBytes() {
+            return databaseFileBytes - getMappedBytes();
+        }
+
+        public double getMappedFraction() {
+            return databaseFileBytes == 0 ? 0 : (double) getMappedBytes() / databaseFileBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "MemoryMapStats{requested=" + requestedBytes + ", effective=" + effectiveBytes
+                    + ", file=" + databaseFileBytes + ", mapped=" + getMappedBytes() + "}";
+        }
+    }
+
+    /**
+     * pragmas applied by onConfigure on the primary connection, the one used by writes and transactions.
+     * with WAL, reads outside a transaction go to pooled connections that keep the platform default
+     */
+    public static class TuningProfile {
+        private int pageSize = -1;
+        private long cacheSizeKiB = -1;
+        private long mmapSize = -1;
+        private double mmapFileSizeFactor = 0;
+        private long maxMmapSize = 0;
+        private boolean isTempStoreInMemory = false;
+        private int busyTimeoutMillis = -1;
+
+        public static TuningProfile readHeavy(){
+            return new TuningProfile()
+                    .setPageSize(4096)
+                    .setCacheSizeKiB(8 * 1024)
+                    .setMmapSizeRelativeToFile(1.25, 256L * 1024 * 1024)
+                    .setTempStoreInMemory(true)
+                    .setBusyTimeoutMillis(3000);
+        }
+
+        public static TuningProfile writeHeavy(){
+            return new TuningProfile()
+                    .setPageSize(4096)
+                    .setCacheSizeKiB(4 * 1024)
+                    .setMmapSize(16L * 1024 * 1024)
+                    .setTempStoreInMemory(true)
+                    .setBusyTimeoutMillis(5000);
+        }
+
+        public static TuningProfile lowMemory(){
+            return new TuningProfile()
+                    .setPageSize(4096)
+                    .setCacheSizeKiB(512)
+                    .setMmapSize(0)
+                    .setBusyTimeoutMillis(2500);
+        }
+
+        //only used when the database file is created
+        public TuningProfile setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public TuningProfile setCacheSizeKiB(long cacheSizeKiB) {
+            this.cacheSizeKiB = cacheSizeKiB;
+            return this;
+        }
+
+        //0 turn memory mapped I/O off
+        public TuningProfile setMmapSize(long mmapSize) {
+            this.mmapSize = mmapSize;
+            this.mmapFileSizeFactor = 0;
+            return this;
+        }
+
+        //map the database file times fileSizeFactor (room to grow) but never more than maxMmapSize bytes
+        public TuningProfile setMmapSizeRelativeToFile(double fileSizeFactor, long maxMmapSize) {
+            this.mmapFileSizeFactor = fileSizeFactor;
+            this.maxMmapSize = maxMmapSize;
+            return this;
+        }
+
+        public TuningProfile setTempStoreInMemory(boolean isTempStoreInMemory) {
+            this.isTempStoreInMemory = isTempStoreInMemory;
+            return this;
+        }
+
+        public TuningProfile setBusyTimeoutMillis(int busyTimeoutMillis) {
+            this.busyTimeoutMillis = busyTimeoutMillis;
+            return this;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        public long getCacheSizeKiB() {
+            return cacheSizeKiB;
+        }
+
+        public long getMmapSize() {
+            return mmapSize;
+        }
+
+        public double getMmapFileSizeFactor() {
+            return mmapFileSizeFactor;
+        }
+
+        public long getMaxMmapSize() {
+            return maxMmapSize;
+        }
+
+        public boolean isTempStoreInMemory() {
+            return isTempStoreInMemory;
+        }
+
+        public int getBusyTimeoutMillis() {
+            return busyTimeoutMillis;
+        }
+    }
+
+    public enum SynchronousMode {
+        OFF,
+        //safe with WAL, commit does not wait for the disk, only checkpoint does
+        NORMAL,
+        FULL,
+        EXTRA
+    }
+
+    public enum TransactionMode {
+        //BEGIN EXCLUSIVE, same as SQLiteDatabase.beginTransaction()
+        EXCLUSIVE,
+        //BEGIN IMMEDIATE, readers on other connections are not blocked in WAL mode
+        IMMEDIATE
+    }
+
+    //transaction state of the calling thread
+    private static class TransactionContext {
+        private boolean isRollbackOnly;
+        //dirty tracking snapshots taken inside the transaction, given to their objects after the commit
+        private final Map<TableClass, Object[]> pendingSnapshotMap = new IdentityHashMap<>();
+
+        private void applySnapshots(){
+            for (Map.Entry<TableClass, Object[]> entry : pendingSnapshotMap.entrySet()) {
+                entry.getKey().dirtySnapshot = entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * run callable inside one transaction bound to the calling thread. every wrapper method called by the callable
+     * on this thread joins the transaction. nested call joins the outer transaction too (mode is ignored), android
+     * can not roll back part of a transaction, so an exception thrown by the nested callable fails the outer one:
+     * the outer call rolls back and throws SQLException even when the exception was caught in between.
+     * any exception roll back the transaction and is thrown again, checked exception is wrapped in RuntimeException
+     */
+    public <T> T inTransaction(Callable<T> callable){
+        return inTransaction(TransactionMode.EXCLUSIVE, callable);
+    }
+
+    public <T> T inTransaction(TransactionMode transactionMode, Callable<T> callable){
+        TransactionContext context = transactionContext.get();
+        if(context != null){
+            return inNestedTransaction(context, callable);
+        }
+
+        SQLiteDatabase database = getDatabase(false);
         try {
-            if(TextUtils.isEmpty(tableName)){
-                tableName = clazz.getSimpleName();
+            if(transactionMode == TransactionMode.IMMEDIATE){
+                database.beginTransactionNonExclusive();
+            } else {
+                database.beginTransaction();
+            }
+        } catch (RuntimeException e){
+            //no transaction was started, the thread must not look like it is inside one
+            closeDatabase();
+            throw e;
+        }
+
+        context = new TransactionContext();
+        transactionContext.set(context);
+        boolean isSuccessful = false;
+        try {
+            T result = callable.call();
+            if(context.isRollbackOnly){
+                throw new SQLException("Transaction is rolled back because a nested transaction failed");
+            }
+            database.setTransactionSuccessful();
+            isSuccessful = true;
+            return result;
+        } catch (RuntimeException e){
+            throw e;
+        } catch (Exception e){
+            throw new RuntimeException(e);
+        } finally {
+            transactionContext.remove();
+            try {
+                database.endTransaction();
+            } finally {
+                closeDatabase();
+            }
+            //not reached when endTransaction fails to commit
+            if(isSuccessful) context.applySnapshots();
+        }
+    }
+
+    private <T> T inNestedTransaction(TransactionContext context, Callable<T> callable){
+        try {
+            return callable.call();
+        } catch (Exception e){
+            context.isRollbackOnly = true;
+            if(e instanceof RuntimeException){
+                throw (RuntimeException) e;
             }
+            throw new RuntimeException(e);
+        }
+    }
+
+    //true when the calling thread is inside inTransaction
+    public boolean isInTransaction(){
+        return transactionContext.get() != null;
+    }
+
+    public void runQueryInBatch(final BatchProcess batchProcess){
+        inTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                batchProcess.onProcess(SQLiteWrapper.this);
+                return null;
+            }
+        });
+    }
 
-            SQLiteDatabase database = getDatabase(true);
 
-            Table table = tableMap.get(tableName);
+    public interface BatchProcess{
+        void onProcess(SQLiteWrapper sqLiteWrapper);
+    }
 
-            String sql = "SELECT * FROM " + tableName + " WHERE ("+whereClause+")";
 
-            if(table.isSoftDeleteEnabled){
-                sql += " AND "+DELETED_AT+" IS NULL";
+    /**
+     * writes submitted by submitWrite (and TableClass saveAsync, updateAsync, deleteAsync) are queued and committed
+     * together by one writer thread, every intervalMillis or every maxOperationCount writes, whichever comes first.
+     * a failed write does not fail the others, they are committed again without it
+     */
+    public SQLiteWrapper enableGroupCommit(long intervalMillis, int maxOperationCount){
+        if(maxOperationCount <= 0){
+            throw new IllegalArgumentException("max operation count must be greater than 0");
+        }
+        //previous writer is flushed outside the lock, its writes may need the wrapper lock
+        disableGroupCommit();
+        synchronized (this) {
+            GroupCommitWriter writer = new GroupCommitWriter(intervalMillis, maxOperationCount);
+            Thread thread = new Thread(writer, "SQLW-group-commit-" + getDatabaseName());
+            thread.setDaemon(true);
+            writer.thread = thread;
+            groupCommitWriter = writer;
+            thread.start();
+        }
+        return this;
+    }
+
+    //commit the queued writes and stop the writer thread, writes submitted after this run directly
+    public void disableGroupCommit(){
+        GroupCommitWriter writer;
+        synchronized (this) {
+            writer = groupCommitWriter;
+            if(writer == null) return;
+            writer.isRunning = false;
+            groupCommitWriter = null;
+        }
+        if(Thread.currentThread() != writer.thread) {
+            try {
+                writer.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }
+    }
 
-            if(!TextUtils.isEmpty(orderBy)){
-                sql += " order by "+orderBy;
+    /**
+     * future completes after the transaction holding the write is committed. without group commit the write runs
+     * directly in its own transaction. when the calling thread is already in a transaction the write joins it, the
+     * future is done when the write returns and the commit stays with the caller
+     */
+    public <T> Future<T> submitWrite(Callable<T> write){
+        PendingWrite<T> pendingWrite = new PendingWrite<>(write);
+        if(!isInTransaction()) {
+            synchronized (this) {
+                if (groupCommitWriter != null && groupCommitWriter.isRunning) {
+                    groupCommitWriter.queue.add(pendingWrite);
+                    return pendingWrite.future;
+                }
             }
+        }
 
-            if(!TextUtils.isEmpty(limit)){
-                sql += " limit "+limit;
+        try {
+            pendingWrite.future.complete(inTransaction(write));
+        } catch (RuntimeException e){
+            pendingWrite.future.fail(e);
+        }
+        return pendingWrite.future;
+    }
+
+    private Future<Boolean> saveAsync(final TableClass tableClass){
+        return submitWrite(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return save(tableClass);
             }
+        });
+    }
 
-            if(!TextUtils.isEmpty(offset)){
-                sql += " offset "+offset;
+    private Future<Boolean> updateAsync(final TableClass tableClass){
+        return submitWrite(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return update(tableClass);
             }
+        });
+    }
 
-            Cursor cursor = database.rawQuery(sql, whereClauseArgs);
+    private Future<Boolean> deleteAsync(final TableClass tableClass){
+        return submitWrite(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return delete(tableClass);
+            }
+        });
+    }
 
-            List<T> resultList = new ArrayList<>();
+    //future completed by the writer after commit, instead of by running a task
+    private static class WriteFuture<T> extends FutureTask<T> {
+        private WriteFuture() {
+            super(new Callable<T>() {
+                @Override
+                public T call() {
+                    return null;
+                }
+            });
+        }
 
-            if(cursor != null) {
-                cursor.moveToFirst();
-                while (!cursor.isAfterLast()) {
-                    List<Object> dataList = fetchRow(cursor, tableName);
+        private void complete(T value){
+            set(value);
+        }
 
-                    T tableClass = clazz.newInstance();
-                    tableClass._id = cursor.getLong(cursor.getColumnIndex(ID));
-                    tableClass.setObjectData(dataList);
+        private void fail(Throwable throwable){
+            setException(throwable);
+        }
+    }
 
-                    fetchRecordLog(table, tableClass, cursor);
+    private static class PendingWrite<T> {
+        private Callable<T> write;
+        private WriteFuture<T> future = new WriteFuture<>();
+        private T result;
+        private RuntimeException exception;
 
-                    resultList.add(tableClass);
+        private PendingWrite(Callable<T> write) {
+            this.write = write;
+        }
 
-                    cursor.moveToNext();
-                }
-                closeCursor(cursor);
+        //inside the batch transaction, return false when the write failed and the batch has to be rolled back
+        private boolean execute(TransactionContext context){
+            result = null;
+            exception = null;
+            try {
+                result = write.call();
+            } catch (RuntimeException e){
+                exception = e;
+            } catch (Exception e){
+                exception = new RuntimeException(e);
             }
-            closeDatabase();
-
-            return resultList;
-        } catch (SQLException e){
-            return null;
-        } catch (InstantiationException e){
-            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
-        } catch (IllegalAccessException e){
-            return null;
+            if(exception == null && context.isRollbackOnly){
+                exception = new SQLException("Write is rolled back because a nested transaction failed");
+            }
+            return exception == null;
         }
-    }
 
-    public <T extends TableClass> T findFirstWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs) {
-        List<T> resultList = selectQuery(false,tableName,clazz,null,whereClause,whereClauseArgs,
-                null,null,ID+" ASC","1");
-        if(resultList != null && resultList.size() > 0){
-            return resultList.get(0);
+        private void complete(){
+            if(exception != null){
+                future.fail(exception);
+            } else {
+                future.complete(result);
+            }
         }
-        return  null;
     }
 
-    public <T extends TableClass> T findLastWithCriteria(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs) {
-        List<T> resultList = selectQuery(false,tableName,clazz,null,whereClause,whereClauseArgs,
-                null,null,ID+" DESC","1");
-        if(resultList != null && resultList.size() > 0){
-            return resultList.get(resultList.size()-1);
+    private class GroupCommitWriter implements Runnable {
+        private final long intervalMillis;
+        private final int maxOperationCount;
+        private final LinkedBlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+        private volatile boolean isRunning = true;
+        private Thread thread;
+
+        private GroupCommitWriter(long intervalMillis, int maxOperationCount) {
+            this.intervalMillis = intervalMillis;
+            this.maxOperationCount = maxOperationCount;
         }
-        return  null;
-    }
 
+        @Override
+        public void run() {
+            List<PendingWrite<?>> batchList = new ArrayList<>();
+            while (isRunning || !queue.isEmpty()) {
+                try {
+                    PendingWrite<?> firstWrite = queue.poll(Math.max(intervalMillis, 100), TimeUnit.MILLISECONDS);
+                    if(firstWrite == null) continue;
+                    batchList.add(firstWrite);
+
+                    //wait for more writes until interval is over or the batch is full
+                    long deadline = System.currentTimeMillis() + intervalMillis;
+                    while (batchList.size() < maxOperationCount) {
+                        queue.drainTo(batchList, maxOperationCount - batchList.size());
+                        long waitMillis = deadline - System.currentTimeMillis();
+                        if(batchList.size() >= maxOperationCount || waitMillis <= 0 || !isRunning) break;
+                        PendingWrite<?> nextWrite = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+                        if(nextWrite == null) break;
+                        batchList.add(nextWrite);
+                    }
+                } catch (InterruptedException e) {
+                    isRunning = false;
+                }
 
-    public <T extends TableClass> List<T> selectQuery(boolean distinct, String tableName, Class<T> clazz, String[] columns,
-                                            String selection, String[] selectionArgs, String groupBy,
-                                            String having, String orderBy, String limit) {
-        try {
-            if(TextUtils.isEmpty(tableName)){
-                tableName = clazz.getSimpleName();
+                if(!batchList.isEmpty()) {
+                    commitBatch(batchList);
+                    batchList.clear();
+                }
             }
+        }
 
-            SQLiteDatabase database = getDatabase(true);
+        /**
+         * a failed write can not be rolled back alone, so the batch is rolled back, the failed write is reported
+         * and the others run again in a new transaction. futures are completed only after the commit
+         */
+        private void commitBatch(List<PendingWrite<?>> batchList){
+            List<PendingWrite<?>> writeList = new ArrayList<>();
+            for (PendingWrite<?> pendingWrite : batchList) {
+                if(!pendingWrite.future.isCancelled()) writeList.add(pendingWrite);
+            }
 
-            Table table = tableMap.get(tableName);
+            while (!writeList.isEmpty()) {
+                final List<PendingWrite<?>> attemptList = writeList;
+                final List<PendingWrite<?>> failedList = new ArrayList<>(1);
+                try {
+                    inTransaction(TransactionMode.IMMEDIATE, new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            TransactionContext context = transactionContext.get();
+                            for (PendingWrite<?> pendingWrite : attemptList) {
+                                if(!pendingWrite.execute(context)){
+                                    failedList.add(pendingWrite);
+                                    throw pendingWrite.exception;
+                                }
+                            }
+                            return null;
+                        }
+                    });
+                } catch (RuntimeException e){
+                    if(failedList.isEmpty()) {
+                        Log.e(TAG, "Group commit failed:", e);
+                        for (PendingWrite<?> pendingWrite : attemptList) {
+                            pendingWrite.future.fail(e);
+                        }
+                        return;
+                    }
+                    PendingWrite<?> failedWrite = failedList.get(0);
+                    failedWrite.complete();
+                    writeList = new ArrayList<>(attemptList);
+                    writeList.remove(failedWrite);
+                    continue;
+                }
 
-            if(table.isSoftDeleteEnabled){
-                if(TextUtils.isEmpty(selection)){
-                    selection = DELETED_AT+" IS NULL";
-                } else {
-                    selection = "("+selection+") AND "+DELETED_AT+" IS NULL";
+                for (PendingWrite<?> pendingWrite : attemptList) {
+                    pendingWrite.complete();
                 }
+                return;
             }
+        }
+    }
 
-            Cursor cursor = database.query(distinct, tableName, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
-
-            List<T> resultList = new ArrayList<>();
-
-            if(cursor != null) {
-                cursor.moveToFirst();
-                while (!cursor.isAfterLast()) {
-                    List<Object> dataList = fetchRow(cursor, tableName);
 
-                    T tableClass = clazz.newInstance();
-                    tableClass._id = cursor.getLong(cursor.getColumnIndex(ID));
-                    tableClass.setObjectData(dataList);
 
-                    fetchRecordLog(table, tableClass, cursor);
+    /**
+     * use own executors for async(), reads can run in parallel and writes should stay on one thread.
+     * executors given here are not shut down by the wrapper
+     */
+    public synchronized SQLiteWrapper setAsyncExecutors(ExecutorService readExecutor, ExecutorService writeExecutor){
+        if(isAsyncExecutorOwned && asyncReadExecutor != null){
+            asyncReadExecutor.shutdown();
+            asyncWriteExecutor.shutdown();
+        }
+        asyncReadExecutor = readExecutor;
+        asyncWriteExecutor = writeExecutor;
+        isAsyncExecutorOwned = false;
+        return this;
+    }
 
-                    resultList.add(tableClass);
+    private synchronized void initAsyncExecutors(){
+        if(asyncReadExecutor == null){
+            int readThreadCount = DEFAULT_ASYNC_READ_THREAD_COUNT;
+            if(databaseConfig != null && databaseConfig.getConnectionPoolSize() > 0){
+                readThreadCount = databaseConfig.getConnectionPoolSize();
+            }
+            asyncReadExecutor = Executors.newFixedThreadPool(readThreadCount, getThreadFactory("SQLW-read-"));
+            asyncWriteExecutor = Executors.newSingleThreadExecutor(getThreadFactory("SQLW-write-"));
+            isAsyncExecutorOwned = true;
+        }
+    }
 
-                    cursor.moveToNext();
-                }
+    private ThreadFactory getThreadFactory(final String namePrefix){
+        return new ThreadFactory() {
+            private int threadCount = 0;
 
-                closeCursor(cursor);
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + getDatabaseName() + "-" + (threadCount++));
+                thread.setDaemon(true);
+                return thread;
             }
-            closeDatabase();
+        };
+    }
 
-            return resultList;
-        } catch (SQLException e){
-            return null;
-        } catch (InstantiationException e){
-            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
-        } catch (IllegalAccessException e){
-            return null;
-        }
+    //callbacks are delivered on the worker thread
+    public Async async(){
+        return async(null);
     }
 
+    //callbacks are delivered on callbackExecutor, for example an executor posting to the main looper
+    public Async async(Executor callbackExecutor){
+        initAsyncExecutors();
+        return new Async(this, callbackExecutor);
+    }
 
-    public <T extends TableClass> List<T> rawSelectQuery(Class<T> clazz, String selectSql, String[] sqlArgs) {
-        try {
-            String tableName = substringBetween(" from "," ", selectSql.replace("FROM","from")+" ");
 
-            SQLiteDatabase database = getDatabase(true);
+    public interface Callback<T> {
+        void onResult(T result);
+        void onError(Throwable throwable);
+    }
 
-            Cursor cursor = database.rawQuery(selectSql, sqlArgs);
+    private interface AsyncWork<T> {
+        T run(CancellationSignal cancellationSignal) throws Exception;
+    }
 
-            List<T> resultList = new ArrayList<>();
+    //future of an async call, cancel also cancel the running query through its CancellationSignal
+    public static class AsyncCall<T> implements Future<T> {
+        private final CancellationSignal cancellationSignal = new CancellationSignal();
+        private FutureTask<T> futureTask;
 
-            if(cursor != null) {
-                cursor.moveToFirst();
+        private AsyncCall() {
+        }
 
-                Table table = tableMap.get(tableName);
+        public CancellationSignal getCancellationSignal() {
+            return cancellationSignal;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancellationSignal.cancel();
+            return futureTask.cancel(mayInterruptIfRunning);
+        }
 
-                while (!cursor.isAfterLast()) {
-                    List<Object> dataList = fetchRow(cursor, tableName);
+        @Override
+        public boolean isCancelled() {
+            return futureTask.isCancelled();
+        }
 
-                    T tableClass = clazz.newInstance();
-                    tableClass._id = cursor.getLong(cursor.getColumnIndex(ID));
-                    tableClass.setObjectData(dataList);
+        @Override
+        public boolean isDone() {
+            return futureTask.isDone();
+        }
 
-                    fetchRecordLog(table, tableClass, cursor);
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return futureTask.get();
+        }
 
-                    resultList.add(tableClass);
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return futureTask.get(timeout, unit);
+        }
+    }
 
-                    cursor.moveToNext();
+    /**
+     * non blocking facade of the wrapper, finders run on the read lane and writes on the write lane.
+     * callback can be null, it is not called when the call is cancelled
+     */
+    public static class Async {
+        private SQLiteWrapper sqLiteWrapper;
+        private Executor callbackExecutor;
+
+        private Async(SQLiteWrapper sqLiteWrapper, Executor callbackExecutor) {
+            this.sqLiteWrapper = sqLiteWrapper;
+            this.callbackExecutor = callbackExecutor;
+        }
+
+        private <T> AsyncCall<T> submit(boolean isWrite, final AsyncWork<T> work, final Callback<T> callback){
+            final AsyncCall<T> asyncCall = new AsyncCall<>();
+            asyncCall.futureTask = new FutureTask<T>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    asyncCall.cancellationSignal.throwIfCanceled();
+                    return work.run(asyncCall.cancellationSignal);
                 }
+            }) {
+                @Override
+                protected void done() {
+                    deliver(this, callback);
+                }
+            };
 
-                closeCursor(cursor);
+            ExecutorService executorService;
+            synchronized (sqLiteWrapper) {
+                executorService = isWrite ? sqLiteWrapper.asyncWriteExecutor : sqLiteWrapper.asyncReadExecutor;
             }
-            closeDatabase();
+            if(executorService == null){
+                throw new IllegalStateException("Database " + sqLiteWrapper.getDatabaseName() + " is already released");
+            }
+            executorService.execute(asyncCall.futureTask);
+            return asyncCall;
+        }
 
-            return resultList;
-        } catch (SQLException e){
-            return null;
-        } catch (InstantiationException e){
-            throw getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
-        } catch (IllegalAccessException e){
-            return null;
+        private <T> void deliver(FutureTask<T> futureTask, final Callback<T> callback){
+            if(callback == null || futureTask.isCancelled()) return;
+
+            Runnable runnable;
+            try {
+                final T result = futureTask.get();
+                runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                };
+            } catch (final ExecutionException e) {
+                runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onError(e.getCause());
+                    }
+                };
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if(callbackExecutor != null){
+                callbackExecutor.execute(runnable);
+            } else {
+                runnable.run();
+            }
         }
-    }
 
+        public <T> AsyncCall<T> read(final Callable<T> callable, Callback<T> callback){
+            return submit(false, new AsyncWork<T>() {
+                @Override
+                public T run(CancellationSignal cancellationSignal) throws Exception {
+                    return callable.call();
+                }
+            }, callback);
+        }
 
-    public <T extends TableClass> long count(String tableName, Class<T> clazz, String selection,
-                                            String[] selectionArgs){
-        if(TextUtils.isEmpty(tableName)){
-            tableName = clazz.getSimpleName();
+        public <T> AsyncCall<T> write(final Callable<T> callable, Callback<T> callback){
+            return submit(true, new AsyncWork<T>() {
+                @Override
+                public T run(CancellationSignal cancellationSignal) throws Exception {
+                    return callable.call();
+                }
+            }, callback);
         }
-        SQLiteDatabase database = getDatabase(true);
-        long count = DatabaseUtils.queryNumEntries(database, tableName, selection, selectionArgs);
-        closeDatabase();
-        return count;
-    }
 
+        public <T extends TableClass> AsyncCall<T> findById(final long id, final String tableName, final Class<T> clazz, Callback<T> callback){
+            return submit(false, new AsyncWork<T>() {
+                @Override
+                public T run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.findById(id, tableName, clazz);
+                }
+            }, callback);
+        }
 
-    public void execSQL(String sql, String[] sqlArgs) {
-        try {
-            SQLiteDatabase database = getDatabase(false);
-            if(sqlArgs == null){
-                sqlArgs = new String[]{};
-            }
-            database.execSQL(sql, sqlArgs);
-            closeDatabase();
-        } catch (SQLException e){
-            e.printStackTrace();
+        public <T extends TableClass> AsyncCall<List<T>> findAll(final String tableName, final Class<T> clazz, final String[] columns,
+                                                                 final String orderBy, final String limit, final String offset,
+                                                                 Callback<List<T>> callback){
+            return submit(false, new AsyncWork<List<T>>() {
+                @Override
+                public List<T> run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.findAll(tableName, clazz, columns, orderBy, limit, offset, cancellationSignal);
+                }
+            }, callback);
+        }
+
+        public <T extends TableClass> AsyncCall<List<T>> findAllWithCriteria(final String tableName, final Class<T> clazz, final String[] columns,
+                                                                             final String whereClause, final String[] whereClauseArgs,
+                                                                             final String orderBy, final String limit, final String offset,
+                                                                             Callback<List<T>> callback){
+            return submit(false, new AsyncWork<List<T>>() {
+                @Override
+                public List<T> run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.findAllWithCriteria(tableName, clazz, columns, whereClause, whereClauseArgs,
+                            orderBy, limit, offset, cancellationSignal);
+                }
+            }, callback);
+        }
+
+        public <T extends TableClass> AsyncCall<T> findFirstWithCriteria(final String tableName, final Class<T> clazz,
+                                                                       final String whereClause, final String[] whereClauseArgs,
+                                                                       Callback<T> callback){
+            return submit(false, new AsyncWork<T>() {
+                @Override
+                public T run(CancellationSignal cancellationSignal) {
+                    List<T> resultList = sqLiteWrapper.findAllWithCriteria(tableName, clazz, null, whereClause, whereClauseArgs,
+                            ID + " ASC", "1", null, cancellationSignal);
+                    return resultList != null && resultList.size() > 0 ? resultList.get(0) : null;
+                }
+            }, callback);
         }
-    }
 
-    private SQLiteDatabase getDatabase(boolean isReadOnly){
-        if(isReadOnly){
-            return getReadableDatabase();
-        } else {
-            return getWritableDatabase();
+        public <T extends TableClass> AsyncCall<List<T>> rawSelectQuery(final Class<T> clazz, final String selectSql, final String[] sqlArgs,
+                                                                        Callback<List<T>> callback){
+            return submit(false, new AsyncWork<List<T>>() {
+                @Override
+                public List<T> run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.rawSelectQuery(clazz, selectSql, sqlArgs, cancellationSignal);
+                }
+            }, callback);
         }
-    }
 
-    private void closeDatabase(){
-        //close(); //no need to call this, this will
-        // make "java.lang.IllegalStateException:
-        // Cannot perform this operation because the connection pool has been closed."
-        // when access in multiple thread
+        public <T extends TableClass> AsyncCall<Long> count(final String tableName, final Class<T> clazz, final String selection,
+                                                            final String[] selectionArgs, Callback<Long> callback){
+            return submit(false, new AsyncWork<Long>() {
+                @Override
+                public Long run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.count(tableName, clazz, selection, selectionArgs);
+                }
+            }, callback);
+        }
 
-        //database connection is singleton, life cycle scope is entire application
-    }
+        public AsyncCall<Boolean> save(final TableClass tableClass, Callback<Boolean> callback){
+            return submit(true, new AsyncWork<Boolean>() {
+                @Override
+                public Boolean run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.save(tableClass);
+                }
+            }, callback);
+        }
 
-    private void closeCursor(Cursor cursor){
-        if(cursor != null && !cursor.isClosed()){
-            cursor.close();
+        public AsyncCall<Boolean> update(final TableClass tableClass, Callback<Boolean> callback){
+            return submit(true, new AsyncWork<Boolean>() {
+                @Override
+                public Boolean run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.update(tableClass);
+                }
+            }, callback);
         }
-    }
 
-    private synchronized void runQueryInBatch(BatchProcess batchProcess){
-        SQLiteDatabase database = getDatabase(false);
-        database.beginTransaction();
-        try{
-            batchProcess.onProcess(this);
-            database.setTransactionSuccessful();
-        } finally {
-            database.endTransaction();
+        public AsyncCall<Boolean> upsert(final TableClass tableClass, final String[] conflictColumns, Callback<Boolean> callback){
+            return submit(true, new AsyncWork<Boolean>() {
+                @Override
+                public Boolean run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.upsert(tableClass, conflictColumns);
+                }
+            }, callback);
         }
-    }
 
+        public AsyncCall<Boolean> delete(final TableClass tableClass, Callback<Boolean> callback){
+            return submit(true, new AsyncWork<Boolean>() {
+                @Override
+                public Boolean run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.delete(tableClass);
+                }
+            }, callback);
+        }
 
-    public interface BatchProcess{
-        void onProcess(SQLiteWrapper sqLiteWrapper);
+        public <T extends TableClass> AsyncCall<Integer> saveAll(final Collection<T> tableClassList, Callback<Integer> callback){
+            return submit(true, new AsyncWork<Integer>() {
+                @Override
+                public Integer run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.saveAll(tableClassList);
+                }
+            }, callback);
+        }
+
+        public <T extends TableClass> AsyncCall<Integer> updateAll(final Collection<T> tableClassList, Callback<Integer> callback){
+            return submit(true, new AsyncWork<Integer>() {
+                @Override
+                public Integer run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.updateAll(tableClassList);
+                }
+            }, callback);
+        }
+
+        public <T extends TableClass> AsyncCall<Integer> deleteByIds(final String tableName, final Class<T> clazz, final long[] ids,
+                                                                     Callback<Integer> callback){
+            return submit(true, new AsyncWork<Integer>() {
+                @Override
+                public Integer run(CancellationSignal cancellationSignal) {
+                    return sqLiteWrapper.deleteByIds(tableName, clazz, ids);
+                }
+            }, callback);
+        }
     }
 
 
@@ -1019,6 +3600,7 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         private String name;
         private boolean isSoftDeleteEnabled = false;
         private boolean isRecordLogEnabled = false;
+        private boolean isDirtyTrackingEnabled = false;
 
 
         private List<Field> fieldList = new ArrayList<>();
@@ -1139,16 +3721,29 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             return this;
         }
 
-        public Table addDateField(String name, boolean isNotNull, boolean isUnique){
-            Field field = new Field(name, Field.INTEGER, Date.class);
+        public Table addDateField(String name, boolean isNotNull, boolean isUnique){
+            Field field = new Field(name, Field.INTEGER, Date.class);
+            setNullState(field, isNotNull);
+            field.setUnique(isUnique);
+            fieldList.add(field);
+            return this;
+        }
+
+        public Table addDateField(String name){
+            addDateField(name, false, false);
+            return this;
+        }
+
+        public Table addBlobField(String name, boolean isNotNull, boolean isUnique){
+            Field field = new Field(name, Field.BLOB, byte[].class);
             setNullState(field, isNotNull);
             field.setUnique(isUnique);
             fieldList.add(field);
             return this;
         }
 
-        public Table addDateField(String name){
-            addDateField(name, false, false);
+        public Table addBlobField(String name){
+            addBlobField(name, false, false);
             return this;
         }
 
@@ -1163,6 +3758,12 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             return this;
         }
 
+        //update() writes only the fields changed since the object was loaded or saved
+        public Table enableDirtyTracking() {
+            isDirtyTrackingEnabled = true;
+            return this;
+        }
+
         public Table addIndex(String... columns) {
             indexList.add(new Index(name,null,columns));
             return this;
@@ -1184,6 +3785,15 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             return this;
         }
 
+        //lazy foreign key is held by a Reference field, its parent is loaded on first get() instead of with the row
+        public Table addForeignKey(String childColumnName, String parentTableName, Class parentTableClass, String parentColumnName, String onUpdateAction, String onDeleteAction,
+                                   boolean isLazy){
+            ForeignKey foreignKey = new ForeignKey(childColumnName, parentTableName, parentTableClass, parentColumnName, onUpdateAction, onDeleteAction);
+            foreignKey.isLazy = isLazy;
+            foreignKeyList.add(foreignKey);
+            return this;
+        }
+
         public List<Index> getIndexList() {
             return indexList;
         }
@@ -1257,6 +3867,7 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         private String parentColumnName;
         private String onUpdateAction;
         private String onDeleteAction;
+        private boolean isLazy = false;
 
         public ForeignKey(String childColumnName, String parentTableName, Class parentTableClass, String parentColumnName, String onUpdateAction, String onDeleteAction) {
             this.childColumnName = childColumnName;
@@ -1295,6 +3906,393 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         public String getOnDeleteAction() {
             return onDeleteAction;
         }
+
+        public boolean isLazy() {
+            return isLazy;
+        }
+    }
+
+
+    //position after the last row of a page, orderValue is null when the row has NULL in the order column
+    public static class PageToken {
+        private String orderValue;
+        private long lastId;
+
+        public PageToken(String orderValue, long lastId) {
+            this.orderValue = orderValue;
+            this.lastId = lastId;
+        }
+
+        public String getOrderValue() {
+            return orderValue;
+        }
+
+        public long getLastId() {
+            return lastId;
+        }
+    }
+
+    private static class PageQuery<T extends TableClass> {
+        private String tableName;
+        private Class<T> clazz;
+        private String whereClause;
+        private String[] whereClauseArgs;
+        private String orderColumn;
+        private boolean isDescending;
+        private int pageSize;
+
+        private PageQuery(String tableName, Class<T> clazz, String whereClause, String[] whereClauseArgs,
+                          String orderColumn, boolean isDescending, int pageSize) {
+            this.tableName = tableName;
+            this.clazz = clazz;
+            this.whereClause = whereClause;
+            this.whereClauseArgs = whereClauseArgs;
+            this.orderColumn = orderColumn;
+            this.isDescending = isDescending;
+            this.pageSize = pageSize;
+        }
+    }
+
+    public static class Page<T extends TableClass> {
+        private SQLiteWrapper sqLiteWrapper;
+        private PageQuery<T> pageQuery;
+        private List<T> itemList;
+        private PageToken nextPageToken;
+        private Future<Page<T>> nextPageFuture;
+
+        private Page(SQLiteWrapper sqLiteWrapper, PageQuery<T> pageQuery, List<T> itemList, PageToken nextPageToken) {
+            this.sqLiteWrapper = sqLiteWrapper;
+            this.pageQuery = pageQuery;
+            this.itemList = itemList;
+            this.nextPageToken = nextPageToken;
+        }
+
+        public List<T> getItemList() {
+            return itemList;
+        }
+
+        //null when this is the last page
+        public PageToken getNextPageToken() {
+            return nextPageToken;
+        }
+
+        public boolean hasNextPage() {
+            return nextPageToken != null;
+        }
+
+        //start loading the next page in background, nextPage() will pick it up
+        public synchronized void prefetchNextPage() {
+            if(nextPageToken == null || nextPageFuture != null) return;
+            nextPageFuture = sqLiteWrapper.getPrefetchExecutor().submit(new Callable<Page<T>>() {
+                @Override
+                public Page<T> call() {
+                    return loadNextPage();
+                }
+            });
+        }
+
+        public synchronized Page<T> nextPage() {
+            if(nextPageToken == null) return null;
+            if(nextPageFuture != null){
+                try {
+                    Page<T> nextPage = nextPageFuture.get();
+                    if(nextPage != null) return nextPage;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "prefetch next page failed:", e);
+                }
+            }
+            return loadNextPage();
+        }
+
+        private Page<T> loadNextPage() {
+            return sqLiteWrapper.findPage(pageQuery.tableName, pageQuery.clazz, pageQuery.whereClause, pageQuery.whereClauseArgs,
+                    pageQuery.orderColumn, pageQuery.isDescending, pageQuery.pageSize, nextPageToken);
+        }
+    }
+
+
+    //reads a blob column one substr() chunk at a time
+    private static class BlobInputStream extends InputStream {
+        private SQLiteWrapper sqLiteWrapper;
+        private String tableName;
+        private String columnName;
+        private long id;
+        private long length;
+        private int chunkSize;
+        private long offset;
+        private byte[] chunk;
+        private int chunkPosition;
+
+        private BlobInputStream(SQLiteWrapper sqLiteWrapper, String tableName, String columnName, long id, long length, int chunkSize) {
+            this.sqLiteWrapper = sqLiteWrapper;
+            this.tableName = tableName;
+            this.columnName = columnName;
+            this.id = id;
+            this.length = length;
+            this.chunkSize = chunkSize;
+        }
+
+        private boolean fillChunk() throws IOException {
+            if(chunk != null && chunkPosition < chunk.length) return true;
+            if(offset >= length) return false;
+            chunk = sqLiteWrapper.readBlobChunk(tableName, columnName, id, offset, chunkSize);
+            if(chunk == null || chunk.length == 0){
+                throw new IOException("Blob " + tableName + "." + columnName + " of row " + id + " changed while reading");
+            }
+            offset += chunk.length;
+            chunkPosition = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!fillChunk()) return -1;
+            return chunk[chunkPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            if(!fillChunk()) return -1;
+            int count = Math.min(len, chunk.length - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, buffer, off, count);
+            chunkPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return chunk == null ? 0 : chunk.length - chunkPosition;
+        }
+    }
+
+
+    //list backed by an open cursor, keep only a bounded window of hydrated rows in memory
+    public static class LazyResult<T extends TableClass> extends AbstractList<T> implements Closeable {
+        private SQLiteWrapper sqLiteWrapper;
+        private Cursor cursor;
+        private Table table;
+        private Class<T> clazz;
+        private CursorShape cursorShape;
+        private IdentityMap identityMap = new IdentityMap();
+        private int count;
+        private int windowSize = DEFAULT_LAZY_WINDOW_SIZE;
+        private LinkedHashMap<Integer, T> windowMap;
+
+        private LazyResult(SQLiteWrapper sqLiteWrapper, Cursor cursor, Table table, Class<T> clazz) {
+            this.sqLiteWrapper = sqLiteWrapper;
+            this.cursor = cursor;
+            this.table = table;
+            this.clazz = clazz;
+            this.cursorShape = sqLiteWrapper.getCursorShape(cursor, table);
+            this.count = cursor.getCount();
+            this.windowMap = new LinkedHashMap<Integer, T>(16, 0.75f, true){
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+                    return size() > windowSize;
+                }
+            };
+        }
+
+        //number of hydrated rows kept in memory
+        public synchronized LazyResult<T> setWindowSize(int windowSize) {
+            if(windowSize <= 0){
+                throw new IllegalArgumentException("window size must be greater than 0");
+            }
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        @Override
+        public synchronized T get(int position) {
+            if(isClosed()){
+                throw new IllegalStateException("LazyResult is already closed");
+            }
+            if(position < 0 || position >= count){
+                throw new IndexOutOfBoundsException("position " + position + ", size " + count);
+            }
+
+            T tableClass = windowMap.get(position);
+            if(tableClass == null){
+                cursor.moveToPosition(position);
+                try {
+                    tableClass = sqLiteWrapper.fetchCurrentObject(cursor, table, clazz, cursorShape, identityMap);
+                } catch (InstantiationException e){
+                    throw sqLiteWrapper.getWarningWhenNoConstructorWithNoArgument(clazz.getSimpleName());
+                } catch (IllegalAccessException e){
+                    throw new IllegalStateException(e);
+                }
+                windowMap.put(position, tableClass);
+            }
+            return tableClass;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        public synchronized boolean isClosed() {
+            return cursor.isClosed();
+        }
+
+        @Override
+        public synchronized void close() {
+            sqLiteWrapper.closeCursor(cursor);
+            windowMap.clear();
+            identityMap = new IdentityMap();
+        }
+    }
+
+
+    //foreign key value that load its parent on first get()
+    public static class Reference<T extends TableClass> {
+        private final Class<T> parentClass;
+        private final String parentTableName;
+        private final String parentColumnName;
+        private Long key;
+        private T value;
+        private boolean isLoaded = false;
+        private SQLiteWrapper sqLiteWrapper;
+        //other references read by the same query, loaded together with this one
+        private ReferenceBatch referenceBatch;
+
+        public Reference(Class<T> parentClass, String parentTableName, String parentColumnName, Long key) {
+            this.parentClass = parentClass;
+            this.parentTableName = TextUtils.isEmpty(parentTableName) ? parentClass.getSimpleName() : parentTableName;
+            this.parentColumnName = TextUtils.isEmpty(parentColumnName) ? ID : parentColumnName;
+            this.key = key;
+        }
+
+        public Reference(Class<T> parentClass, String parentTableName, String parentColumnName) {
+            this(parentClass, parentTableName, parentColumnName, null);
+        }
+
+        //parent given by set() is asked for its current key, so a later save of the parent is followed
+        public synchronized Long getKey() {
+            if(key == null && value != null){
+                return getParentKey(value);
+            }
+            return key;
+        }
+
+        public synchronized void setKey(Long key) {
+            this.key = key;
+            this.value = null;
+            this.isLoaded = false;
+            this.referenceBatch = null;
+        }
+
+        public synchronized boolean isLoaded() {
+            return isLoaded;
+        }
+
+        /**
+         * database to load the parent from, bound already when the owner is read or saved through SQLiteWrapper
+         */
+        public synchronized Reference<T> bind(SQLiteWrapper sqLiteWrapper) {
+            return bind(sqLiteWrapper, null);
+        }
+
+        private synchronized Reference<T> bind(SQLiteWrapper sqLiteWrapper, ReferenceBatch referenceBatch) {
+            this.sqLiteWrapper = sqLiteWrapper;
+            this.referenceBatch = referenceBatch;
+            return this;
+        }
+
+        //throw IllegalStateException when the parent has to be loaded but no database is bound
+        public T get() {
+            ReferenceBatch batch;
+            synchronized (this) {
+                if(isLoaded || key == null) return value;
+                if(sqLiteWrapper == null){
+                    throw new IllegalStateException(String.format(
+                            "Reference to %s.%s is not bound to a database, read its owner through SQLiteWrapper or call bind()",
+                            parentTableName, parentColumnName));
+                }
+                batch = referenceBatch;
+                referenceBatch = null;
+            }
+
+            //outside of this lock, the batch locks every reference it fills
+            if(batch != null){
+                batch.load();
+            }
+
+            synchronized (this) {
+                if(!isLoaded && key != null){
+                    value = sqLiteWrapper.findFirstWithCriteria(parentTableName, parentClass,
+                            parentColumnName + "=?", new String[]{Long.toString(key)});
+                    isLoaded = true;
+                }
+                return value;
+            }
+        }
+
+        //set parent directly, key follow the parent column value
+        public synchronized void set(T value) {
+            this.value = value;
+            this.key = null;
+            this.isLoaded = true;
+            this.referenceBatch = null;
+        }
+
+        private synchronized void bindIfUnbound(SQLiteWrapper sqLiteWrapper) {
+            if(this.sqLiteWrapper == null){
+                this.sqLiteWrapper = sqLiteWrapper;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized void setLoadedValue(TableClass value) {
+            this.value = (T) value;
+            this.isLoaded = true;
+            this.referenceBatch = null;
+        }
+
+        //caller must hold the reference lock
+        private Long getParentKey(T value) {
+            if(ID.equals(parentColumnName)){
+                return value._id;
+            }
+
+            SQLiteWrapper wrapper = sqLiteWrapper;
+            if(wrapper == null && !TextUtils.isEmpty(value.getDatabaseName())){
+                wrapper = SQLiteWrapper.of(value.getDatabaseName());
+            }
+            if(wrapper == null){
+                throw new IllegalStateException(String.format(
+                        "Reference to %s.%s is not bound to a database, key of the parent can not be read",
+                        parentTableName, parentColumnName));
+            }
+            Table parentTable = wrapper.tableMap.get(parentTableName);
+            if(parentTable == null){
+                throw new IllegalStateException(String.format(
+                        "Table %s is not defined in database %s", parentTableName, wrapper.getDatabaseName()));
+            }
+
+            List<Field> fieldList = parentTable.getFieldList();
+            for (int i = 0; i < fieldList.size(); i++) {
+                if(!fieldList.get(i).getName().equals(parentColumnName)) continue;
+
+                List<Object> dataList = new ArrayList<>();
+                value.getObjectData(dataList);
+                Object data = dataList.get(i);
+                if(data == null){
+                    return null;
+                } else if(data instanceof TableClass){
+                    return ((TableClass) data)._id;
+                } else if(data instanceof Number){
+                    return ((Number) data).longValue();
+                }
+                throw new IllegalStateException(String.format(
+                        "Column %s.%s is not an integer key", parentTableName, parentColumnName));
+            }
+            throw new IllegalStateException(String.format(
+                    "Column %s is not a field of table %s", parentColumnName, parentTableName));
+        }
     }
 
 
@@ -1373,6 +4371,7 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         private int databaseVersion;
         private Map<String, Table> tableMap = new HashMap<>();
         private List<Index> indexList = new ArrayList<>();
+        private Database databaseConfig;
 
         public Builder setDatabaseName(String databaseName) {
             this.databaseName = databaseName;
@@ -1384,8 +4383,13 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             return this;
         }
 
+        public Builder setDatabaseConfig(Database databaseConfig) {
+            this.databaseConfig = databaseConfig;
+            return this;
+        }
+
         public SQLiteWrapper create(Context context) {
-            return new SQLiteWrapper(context, databaseName, databaseVersion, tableMap, indexList);
+            return new SQLiteWrapper(context, databaseName, databaseVersion, tableMap, indexList, databaseConfig);
         }
     }
 
@@ -1394,6 +4398,10 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         public Long _id = null;
         public Date _created_at = null;
         public Date _updated_at = null;
+        //field values when the object was loaded or saved, only when dirty tracking is enabled
+        private transient Object[] dirtySnapshot = null;
+        //fields selected by the projection the object was loaded with, null when it was loaded with every field
+        private transient BitSet projectedFields = null;
 
         public TableClass(){
         }
@@ -1409,6 +4417,27 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
         protected void setObjectData(List<Object> dataList){}
         protected void getObjectData(List<Object> dataList){}
 
+        /**
+         * read the current cursor row straight into this object, columnIndexes follow table field order
+         * (-1 when the column is not in the cursor). return false to use setObjectData instead
+         */
+        protected boolean readFromCursor(Cursor cursor, int[] columnIndexes){
+            return false;
+        }
+
+        /**
+         * add every lazy foreign key reference of this object, used to bind and batch load them after a query
+         */
+        protected void getReferences(List<Reference<?>> referenceList){}
+
+        /**
+         * bind the fields into insert/update statement, parameter i+1 is field i of table field order.
+         * return false to use getObjectData instead
+         */
+        protected boolean bindStatement(SQLiteStatement statement){
+            return false;
+        }
+
         public boolean saveIn(String databaseName){
              return SQLiteWrapper.of(databaseName).save(this);
         }
@@ -1437,6 +4466,51 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             return SQLiteWrapper.of(getDatabaseName()).update(this);
         }
 
+        public boolean upsertIn(String databaseName, String... conflictColumns){
+            return SQLiteWrapper.of(databaseName).upsert(this, conflictColumns);
+        }
+
+        /**
+         * insert, or update the row having the same value of conflictColumns (default is the first unique constraint).
+         * record log fields of this object are not refreshed
+         */
+        public boolean upsert(String... conflictColumns){
+            checkCondition();
+
+            return SQLiteWrapper.of(getDatabaseName()).upsert(this, conflictColumns);
+        }
+
+        //queued for group commit when it is enabled, see SQLiteWrapper.enableGroupCommit
+        public Future<Boolean> saveAsyncIn(String databaseName){
+            return SQLiteWrapper.of(databaseName).saveAsync(this);
+        }
+
+        public Future<Boolean> saveAsync(){
+            checkCondition();
+
+            return SQLiteWrapper.of(getDatabaseName()).saveAsync(this);
+        }
+
+        public Future<Boolean> updateAsyncIn(String databaseName){
+            return SQLiteWrapper.of(databaseName).updateAsync(this);
+        }
+
+        public Future<Boolean> updateAsync(){
+            checkCondition();
+
+            return SQLiteWrapper.of(getDatabaseName()).updateAsync(this);
+        }
+
+        public Future<Boolean> deleteAsyncIn(String databaseName){
+            return SQLiteWrapper.of(databaseName).deleteAsync(this);
+        }
+
+        public Future<Boolean> deleteAsync(){
+            checkCondition();
+
+            return SQLiteWrapper.of(getDatabaseName()).deleteAsync(this);
+        }
+
         public boolean deleteIn(String databaseName){
             return SQLiteWrapper.of(databaseName).delete(this);
         }
@@ -1447,6 +4521,52 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             return SQLiteWrapper.of(getDatabaseName()).delete(this);
         }
 
+        public static <T extends TableClass> int saveAll(String databaseName, Collection<T> tableClassList){
+            return SQLiteWrapper.of(databaseName).saveAll(tableClassList);
+        }
+
+        public static <T extends TableClass> int updateAll(String databaseName, Collection<T> tableClassList){
+            return SQLiteWrapper.of(databaseName).updateAll(tableClassList);
+        }
+
+        public static <T extends TableClass> int upsertAll(String databaseName, Collection<T> tableClassList, String... conflictColumns){
+            return SQLiteWrapper.of(databaseName).upsertAll(tableClassList, conflictColumns);
+        }
+
+        public static <T extends TableClass> int deleteByIds(String databaseName, String tableName, Class<T> clazz, long[] ids){
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+            return SQLiteWrapper.of(databaseName).deleteByIds(tableName, clazz, ids);
+        }
+
+        public static <T extends TableClass> LazyResult<T> findAllLazy(String databaseName, String tableName, Class<T> clazz,
+                                                                     String whereClause, String[] whereClauseArgs, String orderBy){
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+            return SQLiteWrapper.of(databaseName).findAllLazy(tableName, clazz, whereClause, whereClauseArgs, orderBy);
+        }
+
+        public static <T extends TableClass> void forEach(String databaseName, String tableName, Class<T> clazz,
+                                                          String whereClause, String[] whereClauseArgs,
+                                                          boolean reuseObject, RowConsumer<T> rowConsumer){
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+            SQLiteWrapper.of(databaseName).forEach(tableName, clazz, whereClause, whereClauseArgs, reuseObject, rowConsumer);
+        }
+
+        public static <T extends TableClass> Page<T> findPage(String databaseName, String tableName, Class<T> clazz,
+                                                              String whereClause, String[] whereClauseArgs,
+                                                              String orderColumn, boolean isDescending, int pageSize, PageToken pageToken){
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+            return SQLiteWrapper.of(databaseName).findPage(tableName, clazz, whereClause, whereClauseArgs,
+                    orderColumn, isDescending, pageSize, pageToken);
+        }
+
         public static <T extends TableClass> T findById(String databaseName, String tableName, Class<T> clazz, long id){
             if(TextUtils.isEmpty(tableName)){
                 tableName = clazz.getSimpleName();
@@ -1463,6 +4583,12 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             }
             return SQLiteWrapper.of(databaseName).findAll(tableName, clazz, orderBy, limit, offset);
         }
+        public static <T extends TableClass> List<T> findAll(String databaseName, String tableName, Class<T> clazz, String[] columns, String orderBy, String limit, String offset){
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+            return SQLiteWrapper.of(databaseName).findAll(tableName, clazz, columns, orderBy, limit, offset);
+        }
 
         public static <T extends TableClass> List<T> findAllWithCriteria(String databaseName, String tableName,
                                                                       Class<T> clazz, String whereClause, String[] whereClauseArgs){
@@ -1475,6 +4601,13 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             }
             return SQLiteWrapper.of(databaseName).findAllWithCriteria(tableName, clazz, whereClause, whereClauseArgs, orderBy, limit, offset);
         }
+        public static <T extends TableClass> List<T> findAllWithCriteria(String databaseName, String tableName, Class<T> clazz, String[] columns,
+                                                                         String whereClause, String[] whereClauseArgs, String orderBy, String limit, String offset){
+            if(TextUtils.isEmpty(tableName)){
+                tableName = clazz.getSimpleName();
+            }
+            return SQLiteWrapper.of(databaseName).findAllWithCriteria(tableName, clazz, columns, whereClause, whereClauseArgs, orderBy, limit, offset);
+        }
 
         public static <T extends TableClass> List<T> selectQuery(String databaseName, boolean distinct, String tableName,
                                                        Class<T> clazz,
@@ -1562,6 +4695,29 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
     }
 
 
+    //keep the oldest row (lowest _id) of every duplicated value, then add the unique index
+    public static class AddUniqueIndexMigrationStep implements MigrationStep{
+        private String tableName;
+        private String[] columns;
+        public AddUniqueIndexMigrationStep(String tableName, String... columns){
+            this.tableName = tableName;
+            this.columns = columns;
+        }
+
+        @Override
+        public List<String> getSQLScriptList(SQLiteWrapper sqLiteWrapper) {
+            List<String> sqlScriptList = new ArrayList<>();
+            String columnString = TextUtils.join(",", columns);
+            //the oldest row is kept, it is the one an unindexed lookup of the value found first
+            sqlScriptList.add(String.format("DELETE FROM %s WHERE %s NOT IN (SELECT MIN(%s) FROM %s GROUP BY %s)",
+                    tableName, ID, ID, tableName, columnString));
+            sqlScriptList.add(String.format("CREATE UNIQUE INDEX IF NOT EXISTS uidx_%s_%s ON %s (%s)",
+                    tableName, TextUtils.join("_", columns), tableName, columnString));
+            return sqlScriptList;
+        }
+    }
+
+
     public interface MigrationPlan {
         List<MigrationStep> getUpgradePlan(int oldVersion, int newVersion);
         List<MigrationStep> getDowngradePlan(int oldVersion, int newVersion);
@@ -1626,7 +4782,7 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
                                 table.addDoubleField(fieldParts[0]);
                                 break;
                             case Field.BLOB:
-                                //
+                                table.addBlobField(fieldParts[0]);
                                 break;
                         }
                     }
@@ -1745,13 +4901,35 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
 
             @Override
             public int getDatabaseVersion() {
-                return 1;
+                return 2;
             }
 
             @Override
             public void configure(SQLiteWrapper sqLiteWrapper) {
+                //version 2 make key unique, older database may hold duplicated keys
+                sqLiteWrapper.setMigrationPlan(new MigrationPlan() {
+                    @Override
+                    public List<MigrationStep> getUpgradePlan(int oldVersion, int newVersion) {
+                        List<MigrationStep> migrationStepList = new ArrayList<>();
+                        if(newVersion == 2){
+                            migrationStepList.add(new AddUniqueIndexMigrationStep("TLookup", "key"));
+                        }
+                        return migrationStepList;
+                    }
+
+                    @Override
+                    public List<MigrationStep> getDowngradePlan(int oldVersion, int newVersion) {
+                        return null;
+                    }
+                });
+                registerFactory(TLookup.class, new Factory<TLookup>() {
+                    @Override
+                    public TLookup create() {
+                        return new TLookup();
+                    }
+                });
                 sqLiteWrapper.addTable(new Table(TLookup.class)
-                        .addStringField("key")
+                        .addStringField("key", false, true)
                         .addStringField("string")
                         .addBooleanField("boolean")
                         .addIntField("integer")
@@ -1769,9 +4947,64 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             SQLiteWrapper.enableLookupDatabase(context);
             sqLiteWrapper = SQLiteWrapper.of(LOOKUP_DATABASE_NAME);
         }
+        //onUpgrade only logs a failed migration, lookups rely on the unique key so it is checked here
+        if(!sqLiteWrapper.isLookupIndexVerified){
+            sqLiteWrapper.ensureUniqueIndex(new AddUniqueIndexMigrationStep("TLookup", "key"));
+            sqLiteWrapper.isLookupIndexVerified = true;
+        }
         return sqLiteWrapper;
     }
 
+    //run the step when the table has no unique index on exactly its columns, failure is thrown
+    private void ensureUniqueIndex(final AddUniqueIndexMigrationStep migrationStep){
+        if(hasUniqueIndex(migrationStep.tableName, migrationStep.columns)) return;
+
+        Log.w(TAG, "Unique index of " + migrationStep.tableName + " is missing, creating it");
+        inTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                SQLiteDatabase database = getDatabase(false);
+                for (String sqlScript : migrationStep.getSQLScriptList(SQLiteWrapper.this)) {
+                    database.execSQL(sqlScript);
+                }
+                return null;
+            }
+        });
+    }
+
+    private boolean hasUniqueIndex(String tableName, String[] columns){
+        SQLiteDatabase database = getDatabase(true);
+        List<String> uniqueIndexList = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("PRAGMA index_list(" + tableName + ")", null);
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int uniqueIndex = cursor.getColumnIndexOrThrow("unique");
+            while (cursor.moveToNext()){
+                if(cursor.getInt(uniqueIndex) == 1){
+                    uniqueIndexList.add(cursor.getString(nameIndex));
+                }
+            }
+        } finally {
+            closeCursor(cursor);
+        }
+
+        for (String indexName : uniqueIndexList){
+            List<String> columnList = new ArrayList<>();
+            try {
+                cursor = database.rawQuery("PRAGMA index_info(" + indexName + ")", null);
+                int nameIndex = cursor.getColumnIndexOrThrow("name");
+                while (cursor.moveToNext()){
+                    columnList.add(cursor.getString(nameIndex));
+                }
+            } finally {
+                closeCursor(cursor);
+            }
+            if(columnList.equals(Arrays.asList(columns))) return true;
+        }
+        return false;
+    }
+
     public static class TLookup extends TableClass{
         private String key;
         private String string;
@@ -1863,5 +5096,29 @@ public final class SQLiteWrapper extends SQLiteOpenHelper {
             aFloat = (float) dataList.get(5);
             aDouble = (double) dataList.get(6);
         }
+
+        @Override
+        protected boolean readFromCursor(Cursor cursor, int[] columnIndexes) {
+            if(columnIndexes[0] >= 0) key = cursor.getString(columnIndexes[0]);
+            if(columnIndexes[1] >= 0) string = cursor.getString(columnIndexes[1]);
+            if(columnIndexes[2] >= 0) aBoolean = cursor.getInt(columnIndexes[2]) == 1;
+            if(columnIndexes[3] >= 0) anInt = cursor.getInt(columnIndexes[3]);
+            if(columnIndexes[4] >= 0) aLong = cursor.getLong(columnIndexes[4]);
+            if(columnIndexes[5] >= 0) aFloat = cursor.getFloat(columnIndexes[5]);
+            if(columnIndexes[6] >= 0) aDouble = cursor.getDouble(columnIndexes[6]);
+            return true;
+        }
+
+        @Override
+        protected boolean bindStatement(SQLiteStatement statement) {
+            if(key == null) statement.bindNull(1); else statement.bindString(1, key);
+            if(string == null) statement.bindNull(2); else statement.bindString(2, string);
+            statement.bindLong(3, aBoolean ? 1 : 0);
+            statement.bindLong(4, anInt);
+            statement.bindLong(5, aLong);
+            statement.bindDouble(6, aFloat);
+            statement.bindDouble(7, aDouble);
+            return true;
+        }
     }
 }
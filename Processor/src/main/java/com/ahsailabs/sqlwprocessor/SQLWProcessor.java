@@ -16,8 +16,10 @@ import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -34,10 +36,12 @@ import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
 import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
@@ -47,6 +51,7 @@ import javax.tools.Diagnostic;
 @AutoService(Processor.class)
 public class SQLWProcessor extends AbstractProcessor {
     private static final String CLASS_SUFFIX = "SQLWHelper";
+    private static final String REFERENCE_CLASS_NAME = "com.ahsailabs.sqlitewrapper.SQLiteWrapper.Reference";
     private Messager messager;
     private Filer filer;
     private Elements elements;
@@ -136,18 +141,27 @@ public class SQLWProcessor extends AbstractProcessor {
         String tableName = table.name();
         boolean recordLog = table.recordLog();
         boolean softDelete = table.softDelete();
+        boolean dirtyTracking = table.dirtyTracking();
 
 
         //create static void method named
         //designTable(SQLiteWrapper sqLiteWrapper)
         //getObjectData(List<Object> dataList, OnlineTryoutItem onlineTryoutItem)
         //setObjectData(List<Object> dataList, OnlineTryoutItem onlineTryoutItem)
+        //readFromCursor(Cursor cursor, int[] columnIndexes, OnlineTryoutItem onlineTryoutItem)
+        //bindStatement(SQLiteStatement statement, OnlineTryoutItem onlineTryoutItem)
+        //getReferences(List<SQLiteWrapper.Reference<?>> referenceList, OnlineTryoutItem onlineTryoutItem)
+        //and static field FACTORY, registered inside designTable so hydration skips reflection
 
         ClassName stringClassName = ClassName.get("java.lang", "String");
         ClassName listClassName = ClassName.get("java.util", "List");
         ClassName dateClassName = ClassName.get("java.util", "Date");
+        ClassName byteBufferClassName = ClassName.get("java.nio", "ByteBuffer");
         ClassName objectClassName = ClassName.get("java.lang", "Object");
         ClassName sqliteWrapperClassName = ClassName.get("com.ahsailabs.sqlitewrapper", "SQLiteWrapper");
+        ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+        ClassName sqliteStatementClassName = ClassName.get("android.database.sqlite", "SQLiteStatement");
+        ClassName referenceClassName = ClassName.get("com.ahsailabs.sqlitewrapper", "SQLiteWrapper", "Reference");
 
         TypeVariableName targetTypeVariableName = TypeVariableName.get(targetClassName);
         TypeVariableName sqlwTypeVariableName = TypeVariableName.get("SQLiteWrapper");
@@ -171,11 +185,51 @@ public class SQLWProcessor extends AbstractProcessor {
                 .addParameter(dataTypeVariableName, "dataList")
                 .addParameter(targetTypeVariableName, targetObjectClassName);
 
+        MethodSpec.Builder readFromCursorSpecBuilder = MethodSpec.methodBuilder("readFromCursor")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(void.class)
+                .addParameter(cursorClassName, "cursor")
+                .addParameter(int[].class, "columnIndexes")
+                .addParameter(targetTypeVariableName, targetObjectClassName);
+
+        MethodSpec.Builder bindStatementSpecBuilder = MethodSpec.methodBuilder("bindStatement")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(void.class)
+                .addParameter(sqliteStatementClassName, "statement")
+                .addParameter(targetTypeVariableName, targetObjectClassName);
+
+        MethodSpec.Builder getReferencesSpecBuilder = MethodSpec.methodBuilder("getReferences")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(void.class)
+                .addParameter(ParameterizedTypeName.get(listClassName,
+                        ParameterizedTypeName.get(referenceClassName, WildcardTypeName.subtypeOf(Object.class))), "referenceList")
+                .addParameter(targetTypeVariableName, targetObjectClassName);
+
 
         List<VariableElement> variableElements = new ImmutableList.Builder<VariableElement>()
                 .addAll(ElementFilter.fieldsIn(originatingType.getEnclosedElements()))
                 .build();
 
+        FieldSpec factoryFieldSpec = null;
+        if(hasAccessibleNoArgConstructor(originatingType)){
+            ClassName targetTypeClassName = ClassName.get(originatingType);
+            ParameterizedTypeName factoryTypeName = ParameterizedTypeName.get(
+                    ClassName.get("com.ahsailabs.sqlitewrapper", "SQLiteWrapper", "Factory"), targetTypeClassName);
+            TypeSpec factoryTypeSpec = TypeSpec.anonymousClassBuilder("")
+                    .addSuperinterface(factoryTypeName)
+                    .addMethod(MethodSpec.methodBuilder("create")
+                            .addAnnotation(Override.class)
+                            .addModifiers(Modifier.PUBLIC)
+                            .returns(targetTypeClassName)
+                            .addStatement("return new $T()", targetTypeClassName)
+                            .build())
+                    .build();
+            factoryFieldSpec = FieldSpec.builder(factoryTypeName, "FACTORY", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$L", factoryTypeSpec)
+                    .build();
+            designMethodSpecBuilder.addStatement("$T.registerFactory($T.class, FACTORY)", sqliteWrapperClassName, targetTypeClassName);
+        }
+
         designMethodSpecBuilder.addCode("sqliteWrapper.addTable(new $T.Table("+(tableName.isEmpty() ? targetClassName+".class":"\""+tableName+"\"")+")", sqliteWrapperClassName);
         designMethodSpecBuilder.addCode("\n");
 
@@ -204,7 +258,14 @@ public class SQLWProcessor extends AbstractProcessor {
 
             String getterSetter = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL,fieldName);
 
-            if(!isPublicField){
+            ForeignKey foreignKey = element.getAnnotation(ForeignKey.class);
+            boolean isReference = foreignKey != null &&
+                    types.erasure(element.asType()).toString().equals(REFERENCE_CLASS_NAME);
+
+            if(isReference){
+                String referenceValue = isPublicField ? targetObjectClassName+"."+fieldName : targetObjectClassName+".get"+getterSetter+"()";
+                getDataSpecBuilder.addCode("dataList.add("+referenceValue+" == null ? null : "+referenceValue+".getKey());");
+            } else if(!isPublicField){
                 getDataSpecBuilder.addCode("dataList.add("+targetObjectClassName+".get"+getterSetter+"());");
             } else {
                 getDataSpecBuilder.addCode("dataList.add("+targetObjectClassName+"."+fieldName+");");
@@ -213,44 +274,134 @@ public class SQLWProcessor extends AbstractProcessor {
 
             String javaType = "";
             ClassName javaClassName = null;
+            String cursorValue = null;
+            String bindCode = null;
+            ClassName bindClassName = null;
+            String setDataValue = null;
+            String fieldValue = isPublicField ? targetObjectClassName+"."+fieldName : targetObjectClassName+".get"+getterSetter+"()";
+            int bindIndex = i + 1;
             if(element.asType().toString().equals("java.lang.String")){
                 designMethodSpecBuilder.addCode(".addStringField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
                 javaType = "String";
+                cursorValue = "cursor.getString(columnIndexes[" + i + "])";
+                bindCode = "if(" + fieldValue + " == null) statement.bindNull(" + bindIndex + "); else statement.bindString(" + bindIndex + ", " + fieldValue + ");";
             } else if(element.asType().toString().equals("int")){
                 designMethodSpecBuilder.addCode(".addIntField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
                 javaType = "int";
+                cursorValue = "cursor.getInt(columnIndexes[" + i + "])";
+                bindCode = "statement.bindLong(" + bindIndex + ", " + fieldValue + ");";
             } else if(element.asType().toString().equals("long")){
                 designMethodSpecBuilder.addCode(".addLongField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
                 javaType = "long";
+                cursorValue = "cursor.getLong(columnIndexes[" + i + "])";
+                bindCode = "statement.bindLong(" + bindIndex + ", " + fieldValue + ");";
             } else if(element.asType().toString().equals("float")){
                 designMethodSpecBuilder.addCode(".addFloatField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
                 javaType = "float";
+                cursorValue = "cursor.getFloat(columnIndexes[" + i + "])";
+                bindCode = "statement.bindDouble(" + bindIndex + ", " + fieldValue + ");";
             } else if(element.asType().toString().equals("double")){
                 designMethodSpecBuilder.addCode(".addDoubleField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
                 javaType = "double";
+                cursorValue = "cursor.getDouble(columnIndexes[" + i + "])";
+                bindCode = "statement.bindDouble(" + bindIndex + ", " + fieldValue + ");";
             } else if(element.asType().toString().equals("boolean")){
                 designMethodSpecBuilder.addCode(".addBooleanField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
                 javaType = "boolean";
+                cursorValue = "cursor.getInt(columnIndexes[" + i + "]) == 1";
+                bindCode = "statement.bindLong(" + bindIndex + ", " + fieldValue + " ? 1 : 0);";
             } else if(element.asType().toString().equals("java.util.Date")){
                 designMethodSpecBuilder.addCode(".addDateField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
                 javaType = "$T";
                 javaClassName = dateClassName;
+                cursorValue = "cursor.isNull(columnIndexes[" + i + "]) ? null : new $T(cursor.getLong(columnIndexes[" + i + "]))";
+                bindCode = "if(" + fieldValue + " == null) statement.bindNull(" + bindIndex + "); else statement.bindLong(" + bindIndex + ", " + fieldValue + ".getTime());";
+            } else if(element.asType().toString().equals("byte[]")){
+                designMethodSpecBuilder.addCode(".addBlobField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
+                javaType = "byte[]";
+                cursorValue = "cursor.isNull(columnIndexes[" + i + "]) ? null : cursor.getBlob(columnIndexes[" + i + "])";
+                bindCode = "if(" + fieldValue + " == null) statement.bindNull(" + bindIndex + "); else statement.bindBlob(" + bindIndex + ", " + fieldValue + ");";
+            } else if(element.asType().toString().equals("java.nio.ByteBuffer")){
+                //stored as byte[] inside data list, wrapped back when set to the object
+                designMethodSpecBuilder.addCode(".addBlobField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
+                javaType = "$T";
+                javaClassName = byteBufferClassName;
+                setDataValue = "dataList.get(" + i + ") == null ? null : $T.wrap((byte[])dataList.get(" + i + "))";
+                cursorValue = "cursor.isNull(columnIndexes[" + i + "]) ? null : $T.wrap(cursor.getBlob(columnIndexes[" + i + "]))";
+                bindCode = "if(" + fieldValue + " == null) statement.bindNull(" + bindIndex + "); else statement.bindBlob(" + bindIndex + ", $T.toBlob(" + fieldValue + "));";
+                bindClassName = sqliteWrapperClassName;
+            } else if(isReference){
+                //lazy foreign key, parent is loaded by Reference.get() together with the other rows of the same query
+                designMethodSpecBuilder.addCode(".addLongField(\""+columnName+"\","+(notNull?"true":"false")+","+(unique?"true":"false")+")");
+                TypeName parentTypeName = TypeName.get(((DeclaredType) element.asType()).getTypeArguments().get(0));
+                String newReference = "new $T<$T>($T.class, \"" + foreignKey.parentTableName() + "\", \"" + foreignKey.parentColumnName() + "\", ";
+
+                String dataValue = newReference + "(Long)dataList.get(" + i + "))";
+                String readValue = newReference + "cursor.isNull(columnIndexes[" + i + "]) ? null : cursor.getLong(columnIndexes[" + i + "]))";
+                if(!isPublicField){
+                    setDataSpecBuilder.addCode(targetObjectClassName+".set" + getterSetter + "(" + dataValue + ");",
+                            referenceClassName, parentTypeName, parentTypeName);
+                    readFromCursorSpecBuilder.addCode("if(columnIndexes[" + i + "] >= 0) " + targetObjectClassName+".set" + getterSetter + "(" + readValue + ");",
+                            referenceClassName, parentTypeName, parentTypeName);
+                } else {
+                    setDataSpecBuilder.addCode(targetObjectClassName+"." + fieldName + " = " + dataValue + ";",
+                            referenceClassName, parentTypeName, parentTypeName);
+                    readFromCursorSpecBuilder.addCode("if(columnIndexes[" + i + "] >= 0) " + targetObjectClassName+"." + fieldName + " = " + readValue + ";",
+                            referenceClassName, parentTypeName, parentTypeName);
+                }
+                readFromCursorSpecBuilder.addCode("\n");
+
+                bindCode = "if(" + fieldValue + " == null || " + fieldValue + ".getKey() == null) statement.bindNull(" + bindIndex + "); else statement.bindLong(" + bindIndex + ", " + fieldValue + ".getKey());";
+
+                getReferencesSpecBuilder.addCode("if(" + fieldValue + " != null) referenceList.add(" + fieldValue + ");");
+                getReferencesSpecBuilder.addCode("\n");
+            }
+
+            if(setDataValue == null){
+                setDataValue = "(" + javaType + ")dataList.get(" + i + ")";
             }
 
-            if(!isPublicField){
+            if(isReference){
+                //already handled above
+            } else if(!isPublicField){
                 if(javaClassName != null){
-                    setDataSpecBuilder.addCode(targetObjectClassName+".set" + getterSetter + "((" + javaType + ")dataList.get(" + i + "));", javaClassName);
+                    setDataSpecBuilder.addCode(targetObjectClassName+".set" + getterSetter + "(" + setDataValue + ");", javaClassName);
                 } else {
-                    setDataSpecBuilder.addCode(targetObjectClassName+".set" + getterSetter + "((" + javaType + ")dataList.get(" + i + "));");
+                    setDataSpecBuilder.addCode(targetObjectClassName+".set" + getterSetter + "(" + setDataValue + ");");
                 }
             } else {
                 if(javaClassName != null) {
-                    setDataSpecBuilder.addCode(targetObjectClassName+"." + fieldName + " = (" + javaType + ")dataList.get(" + i + ");", javaClassName);
+                    setDataSpecBuilder.addCode(targetObjectClassName+"." + fieldName + " = " + setDataValue + ";", javaClassName);
                 } else {
-                    setDataSpecBuilder.addCode(targetObjectClassName+"." + fieldName + " = (" + javaType + ")dataList.get(" + i + ");");
+                    setDataSpecBuilder.addCode(targetObjectClassName+"." + fieldName + " = " + setDataValue + ";");
                 }
             }
 
+            if(cursorValue != null){
+                readFromCursorSpecBuilder.addCode("if(columnIndexes[" + i + "] >= 0) ");
+                String readCode;
+                if(!isPublicField){
+                    readCode = targetObjectClassName+".set" + getterSetter + "(" + cursorValue + ");";
+                } else {
+                    readCode = targetObjectClassName+"." + fieldName + " = " + cursorValue + ";";
+                }
+                if(javaClassName != null){
+                    readFromCursorSpecBuilder.addCode(readCode, javaClassName);
+                } else {
+                    readFromCursorSpecBuilder.addCode(readCode);
+                }
+                readFromCursorSpecBuilder.addCode("\n");
+            }
+
+            if(bindCode != null){
+                if(bindClassName != null){
+                    bindStatementSpecBuilder.addCode(bindCode, bindClassName);
+                } else {
+                    bindStatementSpecBuilder.addCode(bindCode);
+                }
+                bindStatementSpecBuilder.addCode("\n");
+            }
+
             designMethodSpecBuilder.addCode("\n");
             setDataSpecBuilder.addCode("\n");
             getDataSpecBuilder.addCode("\n");
@@ -261,14 +412,20 @@ public class SQLWProcessor extends AbstractProcessor {
             }
 
 
-            ForeignKey foreignKey = element.getAnnotation(ForeignKey.class);
             if(foreignKey != null){
                 String parentTableName = foreignKey.parentTableName();
                 String parentColumnName = foreignKey.parentColumnName();
                 String onUpdate = foreignKey.onUpdate();
                 String onDelete = foreignKey.onDelete();
 
-                designMethodSpecBuilder.addCode(".addForeignKey(\""+columnName+"\",\""+parentTableName+"\",null,\""+parentColumnName+"\",\""+onUpdate+"\",\""+onDelete+"\")");
+                if(isReference){
+                    TypeName parentTypeName = TypeName.get(((DeclaredType) element.asType()).getTypeArguments().get(0));
+                    designMethodSpecBuilder.addCode(".addForeignKey(\""+columnName+"\",\""+parentTableName+"\",$T.class,\""+parentColumnName+"\",\""+onUpdate+"\",\""+onDelete+"\",true)",
+                            parentTypeName);
+                } else {
+                    //plain field only holds the key value, there is no parent object to load
+                    designMethodSpecBuilder.addCode(".addForeignKey(\""+columnName+"\",\""+parentTableName+"\",null,\""+parentColumnName+"\",\""+onUpdate+"\",\""+onDelete+"\")");
+                }
                 designMethodSpecBuilder.addCode("\n");
             }
 
@@ -291,6 +448,11 @@ public class SQLWProcessor extends AbstractProcessor {
             designMethodSpecBuilder.addCode("\n");
         }
 
+        if(dirtyTracking){
+            designMethodSpecBuilder.addCode(".enableDirtyTracking()");
+            designMethodSpecBuilder.addCode("\n");
+        }
+
         Index index = originatingType.getAnnotation(Index.class);
         Unique unique = originatingType.getAnnotation(Unique.class);
         Check check = originatingType.getAnnotation(Check.class);
@@ -375,12 +537,19 @@ public class SQLWProcessor extends AbstractProcessor {
 
         //create a class to wrap our method
         //the class name will be the annotated class name + SQLWH
-        TypeSpec targetClass = TypeSpec.classBuilder(originatingType.getSimpleName().toString() + CLASS_SUFFIX)
+        TypeSpec.Builder targetClassBuilder = TypeSpec.classBuilder(originatingType.getSimpleName().toString() + CLASS_SUFFIX)
                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
-                .addFields(fieldSpecList)
+                .addFields(fieldSpecList);
+        if(factoryFieldSpec != null){
+            targetClassBuilder.addField(factoryFieldSpec);
+        }
+        TypeSpec targetClass = targetClassBuilder
                 .addMethod(designMethodSpecBuilder.build())
                 .addMethod(getDataSpecBuilder.build())
                 .addMethod(setDataSpecBuilder.build())
+                .addMethod(readFromCursorSpecBuilder.build())
+                .addMethod(bindStatementSpecBuilder.build())
+                .addMethod(getReferencesSpecBuilder.build())
                 .build();
 
 
@@ -396,4 +565,15 @@ public class SQLWProcessor extends AbstractProcessor {
         }
 
     }
+
+    //generated factory calls constructor directly, so it must exist and be visible from the helper
+    private boolean hasAccessibleNoArgConstructor(TypeElement typeElement){
+        if(typeElement.getModifiers().contains(Modifier.ABSTRACT)) return false;
+        for(ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())){
+            if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)){
+                return true;
+            }
+        }
+        return false;
+    }
 }
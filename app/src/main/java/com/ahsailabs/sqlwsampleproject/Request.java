@@ -1,5 +1,8 @@
 package com.ahsailabs.sqlwsampleproject;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
 import com.ahsailabs.sqlitewrapper.SQLiteWrapper;
 import com.ahsailabs.sqlwannotation.Column;
 import com.ahsailabs.sqlwannotation.Index;
@@ -61,4 +64,16 @@ public class Request extends SQLiteWrapper.TableClass {
     protected void setObjectData(List<Object> dataList) {
         RequestSQLWHelper.setObjectData(dataList, this);
     }
+
+    @Override
+    protected boolean readFromCursor(Cursor cursor, int[] columnIndexes) {
+        RequestSQLWHelper.readFromCursor(cursor, columnIndexes, this);
+        return true;
+    }
+
+    @Override
+    protected boolean bindStatement(SQLiteStatement statement) {
+        RequestSQLWHelper.bindStatement(statement, this);
+        return true;
+    }
 }
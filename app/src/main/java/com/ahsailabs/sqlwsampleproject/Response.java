@@ -1,5 +1,8 @@
 package com.ahsailabs.sqlwsampleproject;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
 import com.ahsailabs.sqlitewrapper.SQLiteWrapper;
 import com.ahsailabs.sqlwannotation.Check;
 import com.ahsailabs.sqlwannotation.Column;
@@ -9,6 +12,7 @@ import com.ahsailabs.sqlwannotation.Table;
 import com.ahsailabs.sqlwannotation.Unique;
 
 import java.util.Date;
+import java.util.List;
 
 /**
  * Created by ahmad s on 2020-05-25.
@@ -32,4 +36,35 @@ public class Response extends SQLiteWrapper.TableClass {
     @Column
     @ForeignKey(parentTableName = "Request", parentColumnName = "yes_time")
     public float yesTime;
+
+    @Column
+    @ForeignKey(parentTableName = "Request", parentColumnName = "_id")
+    public SQLiteWrapper.Reference<Request> request;
+
+    @Override
+    protected void getObjectData(List<Object> dataList) {
+        ResponseSQLWHelper.getObjectData(dataList, this);
+    }
+
+    @Override
+    protected void setObjectData(List<Object> dataList) {
+        ResponseSQLWHelper.setObjectData(dataList, this);
+    }
+
+    @Override
+    protected boolean readFromCursor(Cursor cursor, int[] columnIndexes) {
+        ResponseSQLWHelper.readFromCursor(cursor, columnIndexes, this);
+        return true;
+    }
+
+    @Override
+    protected boolean bindStatement(SQLiteStatement statement) {
+        ResponseSQLWHelper.bindStatement(statement, this);
+        return true;
+    }
+
+    @Override
+    protected void getReferences(List<SQLiteWrapper.Reference<?>> referenceList) {
+        ResponseSQLWHelper.getReferences(referenceList, this);
+    }
 }